@@ -7,16 +7,39 @@
 import java.util.Scanner;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.StringTokenizer;
-import java.util.Set;
 import java.util.List;
-import java.util.HashSet;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Random;
+import java.util.Collections;
+import java.util.Formatter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import java.sql.*;
 
 public class AssociationRuleGenerator {
@@ -26,35 +49,212 @@ public class AssociationRuleGenerator {
 	private String[] attributeNames; // list of attributes
 	private int numAttributes; // the number of attributes in the file
 	private int numRows;
-	private ArrayList<String[]> itemSet; // list to hold all of the tuples
 	
 	private HashMap<Integer, String> itemMap;
 	private HashMap<Integer, String> attrMap; //maps item keys to attribute names
+	private List<HashMap<String, Integer>> dictionary; // for each attribute, maps its values to item keys
+	
+	private TransactionStore transactions; // the item numbers of each row, in ascending order, stored off the heap
+	
+	private ArrayList<Itemset> completeSetList;
+	SupportTable suppRates; // number of rows containing each frequent itemset
+	private ArrayList<Integer> candidateCounts; // number of candidate itemsets counted at each level
+	
+	private boolean vertical; // count support with item bitmaps instead of scanning the rows
+	private long[][] itemBitmaps; // for each item, a bitmap of the rows that contain it
+	
+	private String engine = "apriori"; // the algorithm used to find the frequent itemsets
+	private String itemsetMode = "all"; // which frequent itemsets to keep: all, closed or maximal
+	private ArrayList<ArrayList<Itemset>> setsByItem; // in closed mode, the closed itemsets containing each item
+	
+	private int threads = 1; // number of threads used to count support
+	private ForkJoinPool pool;
+	
+	private static final int RULE_BATCH_SIZE = 4096; // frequent itemsets whose rules are found at a time
+	private String storeFile; // binary rule store to write along with the Rules file, or null
+	
+	private String filename; // the database file
+	private int partitionSize; // rows per partition when mining the file in partitions, or 0 to load it all
+	
+	private String stateFile; // file holding the frequent itemsets of the last run, for incremental updates
+	private int previousRows; // number of rows mined in the last run
+	private double previousSupport; // minimum support rate of the last run
+	private ArrayList<Itemset> previousSets; // frequent itemsets of the last run
+	private SupportTable previousTable; // frequencies of the frequent itemsets of the last run
+	private String[] previousAttributes; // attribute names of the last run
+	
+	private static final int STATE_VERSION = 1;
+	private static final int SCAN_SIZE = 65536; // rows read at a time when rescanning the file
+	
+	private double sampleRate; // fraction of the rows to sample, or 0 to mine all the rows
+	private long sampleSeed = 1; // seed of the random sample, so that runs can be repeated
+	private static final double SAMPLE_MISS_PROBABILITY = 0.01; // used to lower the support rate for the sample
+	
+	// constraints, each an attribute name or attribute=value
+	private ArrayList<String> excluded = new ArrayList<String>(); // items never mined
+	private ArrayList<String> required = new ArrayList<String>(); // rules must contain one of these items
+	private ArrayList<String> consequentOnly = new ArrayList<String>(); // items only allowed as the consequent
+	private int maxLength; // largest itemset mined, or 0 for no limit
+	private boolean[] excludedAttribute; // for each attribute, true if all of its values are excluded
+	private List<Set<String>> excludedValues; // for each attribute, the excluded values
+	private HashSet<Integer> excludedIds = new HashSet<Integer>(); // item keys of the excluded items
+	private boolean[] requiredItem, consequentItem; // the constrained items, by item key, while generating rules
+	
+	private ArrayList<double[]> sweep = new ArrayList<double[]>(); // (support, confidence) pairs to generate rules for
 	
-	private int[][] itemSetNumbers;
-	private Set[] itemSetList;
+	private boolean basket; // each line lists the items of one transaction, with no header line
+	private static final String BASKET_ATTRIBUTE = "item"; // the one attribute of all the items in basket mode
 	
-	private ArrayList<Set<Integer>> completeSetList;
-	HashMap<Set<Integer>, Double> suppRates;
     public AssociationRuleGenerator() throws IOException
     {
-    	completeSetList = new ArrayList<Set<Integer>>(); // list of all frequent itemsets
-    	//list to hold corresponding supp rate of each frequent itemset
-    	suppRates = new HashMap<Set<Integer>, Double>();
+    	this(new String[0]);
+    }
+    
+    public AssociationRuleGenerator(String[] args) throws IOException
+    {
+    	parseOptions(args);
+    	
+    	completeSetList = new ArrayList<Itemset>(); // list of all frequent itemsets
+    	//table to hold corresponding frequency of each frequent itemset
+    	suppRates = new SupportTable();
+    	candidateCounts = new ArrayList<Integer>();
+    	
+    	if(stateFile != null)
+    		loadState(stateFile);
     	
     	readFile();
+    	setUpExclusions();
     	
-    	System.out.print("Choose a minimum support rate (0.0 to 1.0): ");
-    	Scanner input = new Scanner(System.in);
-    	minSupport = input.nextDouble();    	
-    	System.out.print("Choose a minimum confidence rate (0.0 to 1.0): ");
-    	minConfidence = input.nextDouble();
-    	    	
-    	getInitialItemsets();
-
-    	generateRules(completeSetList); // generate the association rules
+    	// in sweep mode the thresholds come from the command line
+    	if(!sweep.isEmpty())
+    		runSweep();
+    	else
+    	{
+    		System.out.print("Choose a minimum support rate (0.0 to 1.0): ");
+    		Scanner input = new Scanner(System.in);
+    		minSupport = input.nextDouble();    	
+    		System.out.print("Choose a minimum confidence rate (0.0 to 1.0): ");
+    		minConfidence = input.nextDouble();
+    		
+    		// in incremental mode, update the last run's itemsets with the new rows if possible
+    		if(previousTable == null || !updateIncrementally())
+    			mineWholeFile();
+    		
+    		if(stateFile != null)
+    			saveState(stateFile);
+    		
+    		setUpRuleConstraints();
+    		generateRules(completeSetList, minSupport, minConfidence, "Rules", storeFile); // generate the association rules
+    	}
+    	if(pool != null)
+    		pool.shutdown();
     }
 
+    /*
+     * method to read the command line options
+     *   -basket            the file has no header line, and each line lists only the items
+     *                      present in one transaction (any number of them); the items are shown
+     *                      in the rules as item=<name>
+     *   -vertical          count support by intersecting item bitmaps
+     *   -engine <name>     mining algorithm: apriori (default), fpgrowth, eclat or declat
+     *   -closed            keep only the closed frequent itemsets (mined with CHARM, not with -engine)
+     *   -maximal           keep only the maximal frequent itemsets (mined with CHARM, not with -engine)
+     *   -threads <n>       count support and generate rules on n threads (default 1)
+     *   -partition <rows>  mine the file in partitions of the given number of rows,
+     *                      without loading it all into memory
+     *   -sample <rate>     mine a random sample of the rows (e.g. 0.1), then verify the
+     *                      result in one pass over all the rows
+     *   -seed <n>          seed of the random sample (default 1); the same seed picks the same rows
+     *   -store <file>      also write the rules to an indexed binary rule store (see RuleStore)
+     *   -incremental <file> keep the frequent itemsets in the given file; if it holds the results
+     *                      of an earlier run on the start of the same data file, only the rows
+     *                      appended since then are mined
+     * constraints, where <item> is an attribute name (all of its values) or attribute=value,
+     * and each may be given more than once:
+     *   -exclude <item>    leave the item out of the mining altogether
+     *   -require <item>    only output rules that contain one of the required items
+     *   -consequent <item> only output rules whose consequent is made of these items,
+     *                      which then never appear in an antecedent
+     *   -maxlength <n>     do not mine itemsets of more than n items
+     *   -sweep <supp>,<conf> instead of asking for the thresholds, write the rules for each pair
+     *                      given (the option may be repeated) to Rules-<supp>-<conf>. The itemsets
+     *                      are mined once at the lowest support rate and cached for later sweeps
+     */
+    private void parseOptions(String[] args)
+    {
+    	for(int i = 0; i < args.length; i++)
+    	{
+    		if(args[i].equals("-basket"))
+    			basket = true;
+    		else if(args[i].equals("-vertical"))
+    			vertical = true;
+    		else if(args[i].equals("-engine") && i + 1 < args.length)
+    			engine = args[++i];
+    		else if(args[i].equals("-closed"))
+    			itemsetMode = "closed";
+    		else if(args[i].equals("-maximal"))
+    			itemsetMode = "maximal";
+    		else if(args[i].equals("-threads") && i + 1 < args.length)
+    			threads = Integer.parseInt(args[++i]);
+    		else if(args[i].equals("-partition") && i + 1 < args.length)
+    			partitionSize = Integer.parseInt(args[++i]);
+    		else if(args[i].equals("-sample") && i + 1 < args.length)
+    			sampleRate = Double.parseDouble(args[++i]);
+    		else if(args[i].equals("-seed") && i + 1 < args.length)
+    			sampleSeed = Long.parseLong(args[++i]);
+    		else if(args[i].equals("-store") && i + 1 < args.length)
+    			storeFile = args[++i];
+    		else if(args[i].equals("-incremental") && i + 1 < args.length)
+    			stateFile = args[++i];
+    		else if(args[i].equals("-exclude") && i + 1 < args.length)
+    			excluded.add(args[++i]);
+    		else if(args[i].equals("-require") && i + 1 < args.length)
+    			required.add(args[++i]);
+    		else if(args[i].equals("-consequent") && i + 1 < args.length)
+    			consequentOnly.add(args[++i]);
+    		else if(args[i].equals("-maxlength") && i + 1 < args.length)
+    			maxLength = Integer.parseInt(args[++i]);
+    		else if(args[i].equals("-sweep") && i + 1 < args.length)
+    		{
+    			String[] pair = args[++i].split(",");
+    			if(pair.length != 2){
+    				System.out.println("A sweep threshold must be a support rate and a confidence rate, e.g. 0.1,0.6");
+    				System.exit(0);
+    			}
+    			sweep.add(new double[] { Double.parseDouble(pair[0]), Double.parseDouble(pair[1]) });
+    		}
+    		else {
+    			System.out.println("Unknown option: " + args[i]);
+    			System.exit(0);
+    		}
+    	}
+    	
+    	if(!engine.equals("apriori") && !engine.equals("fpgrowth") && !engine.equals("eclat") && !engine.equals("declat")){
+    		System.out.println("Unknown mining engine: " + engine);
+    		System.exit(0);
+    	}
+    	if(!itemsetMode.equals("all") && (partitionSize > 0 || stateFile != null || sampleRate > 0)){
+    		System.out.println("Closed and maximal itemsets cannot be mined in partitions, incrementally or from a sample.");
+    		System.exit(0);
+    	}
+    	if(sampleRate > 0 && partitionSize > 0){
+    		System.out.println("A sample cannot be mined in partitions.");
+    		System.exit(0);
+    	}
+    	if(!itemsetMode.equals("all") && !engine.equals("apriori")){
+    		System.out.println("Closed and maximal itemsets are always mined with CHARM, so no engine can be chosen.");
+    		System.exit(0);
+    	}
+    	if(!itemsetMode.equals("all") && maxLength > 0){
+    		System.out.println("Closed and maximal itemsets cannot be limited in length.");
+    		System.exit(0);
+    	}
+    	if(!sweep.isEmpty() && (!itemsetMode.equals("all") || stateFile != null)){
+    		System.out.println("A sweep cannot be combined with closed, maximal or incremental mining.");
+    		System.exit(0);
+    	}
+    }
+    
     /*
      * method to store contents of database into
      */
@@ -62,11 +262,20 @@ public class AssociationRuleGenerator {
     {
     	System.out.print("Enter a file name: ");
     	Scanner input = new Scanner(System.in);
-    	String filename = input.next();
+    	filename = input.next();
 
     	BufferedReader br;
     	try {
     		br = new BufferedReader(new FileReader(filename));
+    		
+    		// basket files have no header; their rows are read and encoded later, one at a time
+    		if(basket){
+    			br.close();
+    			numAttributes = 1;
+    			attributeNames = new String[] { BASKET_ATTRIBUTE };
+    			return;
+    		}
+    		
     		String currentLine = br.readLine();
     		
     		StringTokenizer st = new StringTokenizer(currentLine);
@@ -79,28 +288,8 @@ public class AssociationRuleGenerator {
     			//System.out.println(attributeNames[i]);
     		}
     		
-    		// create itemSet, an ArrayList of arrays (each representing a row from the database)
-    		itemSet = new ArrayList<String[]>();
-    		 	
-    		// place data into itemSet
-    		while((currentLine = br.readLine()) != null)
-    		{					
-    			st = new StringTokenizer(currentLine);
-
-    			if(!st.hasMoreTokens()) break;
-    			
-    			String[]items = new String[numAttributes];
-    			String curr;
-        		for(int i = 0; i < numAttributes; i++){
-        			if(st.hasMoreTokens()){
-        				curr = st.nextToken();	
-	        			items[i] = curr;
-        			}
-        		}
-    			
-    			itemSet.add(items);   			
-    		} 	
-    		numRows = itemSet.size();
+    		// the rows are read and encoded later, as they are needed
+    		br.close();
     		
     	} catch(IOException e){
     		System.out.println("Error reading file.");
@@ -108,50 +297,293 @@ public class AssociationRuleGenerator {
     	}
     } // end of readFile method
     
-    private void getInitialItemsets()
+    /*
+     * method to work out which attributes and values are excluded, once the attribute names are known
+     */
+    private void setUpExclusions()
+    {
+    	excludedAttribute = new boolean[numAttributes];
+    	excludedValues = new ArrayList<Set<String>>(numAttributes);
+    	for(int i = 0; i < numAttributes; i++)
+    		excludedValues.add(new HashSet<String>());
+    	
+    	for(String item : excluded)
+    	{
+    		int eq = item.indexOf('=');
+    		String attr = eq < 0 ? item : item.substring(0, eq);
+    		int i = Arrays.asList(attributeNames).indexOf(attr);
+    		if(i < 0)
+    			System.out.println("Unknown attribute in constraint: " + item);
+    		else if(eq < 0)
+    			excludedAttribute[i] = true;
+    		else
+    			excludedValues.get(i).add(item.substring(eq + 1));
+    	}
+    }
+    
+    /*
+     * returns true if the given value of the i-th attribute is excluded from mining
+     */
+    private boolean isExcluded(int i, String value)
+    {
+    	return excludedAttribute[i] || excludedValues.get(i).contains(value);
+    }
+    
+    /*
+     * returns true if the item with the given key matches one of the constraint items
+     */
+    private boolean matches(ArrayList<String> constraint, int num)
+    {
+    	String attr = attrMap.get(num);
+    	return constraint.contains(attr) || constraint.contains(attr + "=" + itemMap.get(num));
+    }
+    
+    /*
+     * method to read the next row of the database, returning null at the end of the data
+     */
+    private String[] readRow(BufferedReader br) throws IOException
+    {
+    	String currentLine = br.readLine();
+    	if(currentLine == null)
+    		return null;
+    	
+    	StringTokenizer st = new StringTokenizer(currentLine);
+    	
+    	// a basket row is just its items, all values of the one attribute; a blank line is an empty basket
+    	if(basket)
+    	{
+    		String[] items = new String[st.countTokens()];
+    		for(int i = 0; i < items.length; i++)
+    			items[i] = st.nextToken();
+    		return items;
+    	}
+    	
+    	// skip blank lines
+    	while(!st.hasMoreTokens())
+    	{
+    		currentLine = br.readLine();
+    		if(currentLine == null)
+    			return null;
+    		st = new StringTokenizer(currentLine);
+    	}
+    	
+    	String[]items = new String[numAttributes];
+    	String curr;
+    	for(int i = 0; i < numAttributes; i++){
+    		if(st.hasMoreTokens()){
+    			curr = st.nextToken();	
+    			items[i] = curr;
+    		}
+    	}
+    	return items;
+    }
+    
+    /*
+     * method to number the items and encode the rows into transactions as they are read, so the
+     * text of the rows is never all held at once. Items are numbered one attribute at a time, in the
+     * order their values first appear, so each row's item numbers come out sorted; since that order
+     * is only known at the end, the rows are stored with temporary numbers that are replaced then.
+     */
+    private void getInitialItemsets() throws IOException
     {
     	attrMap = new HashMap<Integer, String>();
-    	itemMap = new HashMap<Integer, String>();    	
-    	HashMap[] I = new HashMap[numAttributes];    	  
-    	int index = 0;   
-    	    	
-    	itemSetNumbers = new int[numRows][numAttributes];
-    	itemSetList = new HashSet[numRows];
-    	//initial the array of Sets
-    	for(int j = 0; j < numRows; j++){
-    		Set<Integer> row = new HashSet<Integer>();
-    		itemSetList[j] = row;
+    	itemMap = new HashMap<Integer, String>();
+    	dictionary = new ArrayList<HashMap<String, Integer>>(numAttributes);
+    	for(int i = 0; i < numAttributes; i++)
+    		dictionary.add(new HashMap<String, Integer>());
+    	
+    	// while reading, values are numbered in the order they first appear in any attribute,
+    	// and the excluded items are left out so none of the engines ever sees them
+    	int[] attributeOf = new int[1024]; // the attribute of each temporary number
+    	int numValues = 0;
+    	transactions = new TransactionStore();
+    	int[] row = new int[numAttributes];
+    	BufferedReader br = openData();
+    	String[] items;
+    	while((items = readRow(br)) != null)
+    	{
+    		int length = 0;
+    		for(int i = 0; i < numAttributes; i++)
+    		{
+    			Integer num = dictionary.get(i).get(items[i]);
+    			if(num == null)
+    			{
+    				num = numValues++;
+    				dictionary.get(i).put(items[i], num);
+    				if(num == attributeOf.length)
+    					attributeOf = Arrays.copyOf(attributeOf, 2 * attributeOf.length);
+    				attributeOf[num] = i;
+    			}
+    			if(!isExcluded(i, items[i]))
+    				row[length++] = num;
+    		}
+    		transactions.add(row, length);
     	}
+    	br.close();
+    	numRows = transactions.size();
+    	
+    	// number the items one attribute at a time, keeping the order of each attribute's values
+    	int[] next = new int[numAttributes + 1]; // the next item number of each attribute
+    	for(int t = 0; t < numValues; t++)
+    		next[attributeOf[t] + 1]++;
+    	for(int i = 1; i <= numAttributes; i++)
+    		next[i] += next[i - 1];
+    	int[] itemNumber = new int[numValues];
+    	for(int t = 0; t < numValues; t++)
+    		itemNumber[t] = next[attributeOf[t]]++;
     	
     	for(int i = 0; i < numAttributes; i++)
     	{
-    		I[i] = new HashMap<String, Integer>();
-    		for(int j = 0; j < numRows; j++)
+    		for(Map.Entry<String, Integer> entry : dictionary.get(i).entrySet())
     		{
-    			String[] curr = itemSet.get(j);   			  			
-    			
-    			if(!I[i].containsKey(curr[i]))
-    			{   	   				
-    				I[i].put(curr[i], index);   				
-    				itemMap.put(index, curr[i]);
-    				
-    				attrMap.put(index, attributeNames[i]);
-    				index++;   				
-    			} 
-    			
-				itemSetNumbers[j][i] = (Integer)I[i].get(curr[i]);	
-				itemSetList[j].add((Integer)I[i].get(curr[i]));
-    		}		
-    	} 
-
+    			int num = itemNumber[entry.getValue()];
+    			entry.setValue(num);
+    			itemMap.put(num, entry.getKey());
+    			attrMap.put(num, attributeNames[i]);
+    			if(isExcluded(i, entry.getKey()))
+    				excludedIds.add(num);
+    		}
+    	}
+    	transactions.replaceAll(num -> itemNumber[num]);
+    }
+    
+    /*
+     * method to find the frequent itemsets with Toivonen's sampling algorithm. A random sample of
+     * the rows is mined at a lowered support rate, then one pass over all the rows counts those
+     * itemsets and their negative border (the itemsets that were not frequent in the sample but
+     * whose subsets all were). If no itemset of the border is frequent, no frequent itemset was
+     * missed; otherwise the whole database is mined again.
+     */
+    private void mineFromSample()
+    {
+    	TransactionStore allRows = transactions;
+    	int totalRows = numRows;
+    	double support = minSupport;
+    	
+    	Random random = new Random(sampleSeed);
+    	ArrayList<int[]> sample = new ArrayList<int[]>();
+    	TransactionStore.Cursor cursor = allRows.cursor(0);
+    	int[] row = new int[allRows.getMaxRowLength()];
+    	for(int j = 0; j < totalRows; j++)
+    	{
+    		int length = cursor.next(row);
+    		if(random.nextDouble() < sampleRate)
+    			sample.add(Arrays.copyOf(row, length));
+    	}
+    	if(sample.isEmpty())
+    		sample.add(allRows.getRow(random.nextInt(totalRows)));
+    	
+    	// lower the support rate by the error bound of a sample of this size, so that
+    	// an itemset is unlikely to be frequent in all the rows but not in the sample
+    	double lowered = support - Math.sqrt(Math.log(1 / SAMPLE_MISS_PROBABILITY) / (2.0 * sample.size()));
+    	minSupport = Math.max(lowered, support / 2);
+    	System.out.println("Sample: " + sample.size() + " rows, support rate lowered to " + String.format("%1.4f", minSupport));
+    	
+    	loadPartition(sample);
+    	mineFrequentItemsets();
+    	ArrayList<Itemset> candidates = new ArrayList<Itemset>(completeSetList);
+    	ArrayList<Itemset> border = getNegativeBorder(completeSetList, suppRates);
+    	candidates.addAll(border);
+    	
+    	// one pass over all the rows to count the itemsets found in the sample and their border
+    	transactions = allRows;
+    	numRows = totalRows;
+    	minSupport = support;
+    	if(vertical)
+    		buildBitmaps();
+    	int[] freqs = countCandidates(candidates);
+    	
+    	completeSetList = new ArrayList<Itemset>();
+    	suppRates = new SupportTable(candidates.size());
+    	int missed = 0;
+    	for(int c = 0; c < candidates.size(); c++)
+    	{
+    		if((double)freqs[c] / (double)numRows >= minSupport)
+    		{
+    			completeSetList.add(candidates.get(c));
+    			suppRates.put(candidates.get(c), freqs[c]);
+    			if(c >= candidates.size() - border.size())
+    				missed++;
+    		}
+    	}
+    	Collections.sort(completeSetList);
+    	
+    	if(missed == 0)
+    	{
+    		System.out.println("Verified: the sample found all " + completeSetList.size() + " frequent itemsets");
+    		return;
+    	}
+    	
+    	System.out.println(missed + " itemsets of the negative border are frequent, so the sample may have missed some; mining all the rows");
+    	completeSetList = new ArrayList<Itemset>();
+    	suppRates = new SupportTable();
+    	mineFrequentItemsets();
+    }
+    
+    /*
+     * returns the negative border of the given downward closed collection of itemsets:
+     * the itemsets not in it whose subsets one item smaller are all in it
+     */
+    private ArrayList<Itemset> getNegativeBorder(ArrayList<Itemset> itemsets, SupportTable table)
+    {
+    	ArrayList<Itemset> border = new ArrayList<Itemset>();
+    	
+    	ArrayList<ArrayList<Itemset>> levels = new ArrayList<ArrayList<Itemset>>();
+    	for(Itemset curr : itemsets)
+    	{
+    		while(levels.size() < curr.size())
+    			levels.add(new ArrayList<Itemset>());
+    		levels.get(curr.size() - 1).add(curr);
+    	}
+    	
+    	for(int i = 0; i < itemMap.size(); i++)
+    	{
+    		Itemset curr = new Itemset(i);
+    		if(!table.containsKey(curr) && !excludedIds.contains(i))
+    			border.add(curr);
+    	}
+    	for(int k = 0; k < levels.size() && (maxLength == 0 || k + 2 <= maxLength); k++)
+    	{
+    		for(Itemset curr : aprioriGen(levels.get(k), k + 2, table)){
+    			if(!table.containsKey(curr))
+    				border.add(curr);
+    		}
+    	}
+    	return border;
+    }
+    
+    /*
+     * method to find the frequent itemsets of the rows in transactions,
+     * storing them in completeSetList and suppRates
+     */
+    private void mineFrequentItemsets()
+    {
+    	if(vertical || !itemsetMode.equals("all"))
+    		buildBitmaps();
+    	
+    	if(!itemsetMode.equals("all"))
+    	{
+    		mineClosed();
+    		return;
+    	}
+    	
+    	if(engine.equals("fpgrowth"))
+    	{
+    		mineFPGrowth();
+    		return;
+    	}
+    	if(engine.equals("eclat") || engine.equals("declat"))
+    	{
+    		mineEclat();
+    		return;
+    	}
     	
     	// store the initial itemsets in an ArrayList
-    	ArrayList<Set<Integer>> C = new ArrayList<Set<Integer>>();   	
+    	ArrayList<Itemset> C = new ArrayList<Itemset>();   	
     	for(int i = 0; i < itemMap.size(); i++)
     	{
-    		Set<Integer> curr = new HashSet<Integer>();
-    		curr.add(i);
-    		C.add(curr);
+    		if(!excludedIds.contains(i))
+    			C.add(new Itemset(i));
     	}
     	
     	
@@ -159,218 +591,1090 @@ public class AssociationRuleGenerator {
     }
     
     /*
-     * method to scan candidate itemsets for frequencies and store the frequent itemsets in L
+     * method to set bit j of an item's bitmap for each row j that contains the item
      */
-    private void scanFrequencies(ArrayList<Set<Integer>> C, int size) 
+    private void buildBitmaps()
     {
-    	ArrayList<Set<Integer>> L = new ArrayList<Set<Integer>>();
+    	int numWords = (numRows + 63) / 64;
+    	itemBitmaps = new long[itemMap.size()][numWords];
+    	TransactionStore.Cursor cursor = transactions.cursor(0);
+    	int[] row = new int[transactions.getMaxRowLength()];
+    	for(int j = 0; j < numRows; j++)
+    	{
+    		int length = cursor.next(row);
+    		for(int k = 0; k < length; k++)
+    			itemBitmaps[row[k]][j >> 6] |= 1L << (j & 63);
+    	}
+    }
+    
+    /*
+     * method to find the frequent itemsets of the whole file, all at once or in partitions
+     */
+    private void mineWholeFile() throws IOException
+    {
+    	if(partitionSize > 0)
+    	{
+    		mineInPartitions();
+    		return;
+    	}
     	
-    	ArrayList<Double> supportRates = new ArrayList<Double>();
+    	if(basket)
+    		loadBaskets();
+    	else
+    		getInitialItemsets();
     	
-    	// calculate the required frequency based on the minimum support rate
-    	int minFreq = (int)(minSupport * numRows);
-    	double minRemainder = (minSupport * numRows) - minFreq;
-    	if(minRemainder > 0)
-    		minFreq++;
+    	if(sampleRate > 0)
+    		mineFromSample();
+    	else
+    		mineFrequentItemsets();
+    }
+    
+    /*
+     * method to encode the rows of a basket file as they are read, so that only the items present
+     * in each row are ever held
+     */
+    private void loadBaskets() throws IOException
+    {
+    	attrMap = new HashMap<Integer, String>();
+    	itemMap = new HashMap<Integer, String>();
+    	dictionary = new ArrayList<HashMap<String, Integer>>();
+    	dictionary.add(new HashMap<String, Integer>());
     	
-    	// for each candidate itemset, add to L if it is a frequent itemset
-    	for(Set<Integer> curr : C)
+    	transactions = new TransactionStore();
+    	BufferedReader br = openData();
+    	String[] items;
+    	while((items = readRow(br)) != null)
+    		transactions.add(encodeRow(items));
+    	br.close();
+    	numRows = transactions.size();
+    	System.out.println("Baskets: " + numRows + " rows, " + itemMap.size() + " items");
+    }
+    
+    /*
+     * returns a reader positioned at the first row of the data file, past the header line if there is one
+     */
+    private BufferedReader openData() throws IOException
+    {
+    	BufferedReader br = new BufferedReader(new FileReader(filename));
+    	if(!basket)
+    		br.readLine(); // skip the attribute names
+    	return br;
+    }
+    
+    /*
+     * method to update the frequent itemsets of the last run with the rows appended to the file
+     * since then, in the manner of the FUP algorithm. An itemset that was not frequent in the old
+     * rows can only be frequent now if it is frequent in the new rows, so the old rows are only
+     * scanned for the itemsets that are frequent in the new rows but were not frequent before.
+     * Returns false if the last run's results cannot be used.
+     */
+    private boolean updateIncrementally() throws IOException
+    {
+    	if(!Arrays.equals(attributeNames, previousAttributes)){
+    		System.out.println("The attributes have changed since the last run, mining the whole file.");
+    		return false;
+    	}
+    	if(minSupport < previousSupport){
+    		System.out.println("The support rate is lower than in the last run, mining the whole file.");
+    		return false;
+    	}
+    	
+    	// skip the rows mined in the last run and read the new ones
+    	BufferedReader br = openData();
+    	for(int j = 0; j < previousRows; j++)
+    	{
+    		if(readRow(br) == null){
+    			br.close();
+    			System.out.println("The file has fewer rows than in the last run, mining the whole file.");
+    			return false;
+    		}
+    	}
+    	
+    	// mine the new rows on their own, in partitions if the whole run would be; the last run's
+    	// itemsets are counted in the new rows along with the itemsets found in them
+    	int size = partitionSize > 0 ? partitionSize : Integer.MAX_VALUE;
+    	ArrayList<Itemset> counted = new ArrayList<Itemset>(previousSets);
+    	SupportTable countedTable = new SupportTable();
+    	ArrayList<int[]> partition = new ArrayList<int[]>();
+    	int newRowCount = 0, partitions = 0;
+    	for(; readPartition(br, partition, size); partitions++)
+    	{
+    		newRowCount += partition.size();
+    		completeSetList = new ArrayList<Itemset>();
+    		suppRates = new SupportTable();
+    		loadPartition(partition);
+    		mineFrequentItemsets();
+    		
+    		for(Itemset curr : completeSetList)
+    		{
+    			if(!previousTable.containsKey(curr) && !countedTable.containsKey(curr))
+    			{
+    				countedTable.put(curr, 0);
+    				counted.add(curr);
+    			}
+    		}
+    	}
+    	br.close();
+    	
+    	int[] newCounts = new int[counted.size()];
+    	if(partitions == 1)
+    		newCounts = countCandidates(counted); // the only partition is still loaded
+    	else if(partitions > 1)
+    	{
+    		br = openData();
+    		for(int j = 0; j < previousRows; j++)
+    			readRow(br);
+    		while(readPartition(br, partition, size))
+    		{
+    			loadPartition(partition);
+    			if(vertical)
+    				buildBitmaps();
+    			
+    			int[] freqs = countCandidates(counted);
+    			for(int c = 0; c < newCounts.length; c++)
+    				newCounts[c] += freqs[c];
+    		}
+    		br.close();
+    	}
+    	
+    	// the itemsets that are frequent in the new rows but were not frequent before
+    	ArrayList<Itemset> candidates = new ArrayList<Itemset>();
+    	SupportTable localRates = new SupportTable();
+    	for(int c = previousSets.size(); c < counted.size(); c++)
+    	{
+    		if((double)newCounts[c] / (double)newRowCount >= minSupport)
+    		{
+    			candidates.add(counted.get(c));
+    			localRates.put(counted.get(c), newCounts[c]);
+    		}
+    	}
+    	
+    	// count the itemsets that may have become frequent in the old rows
+    	int[] oldCounts = new int[candidates.size()];
+    	if(!candidates.isEmpty())
+    	{
+    		br = openData();
+    		for(int read = 0; read < previousRows && readPartition(br, partition, Math.min(SCAN_SIZE, previousRows - read)); read += partition.size())
+    		{
+    			loadPartition(partition);
+    			if(vertical)
+    				buildBitmaps();
+    			
+    			int[] freqs = countCandidates(candidates);
+    			for(int c = 0; c < oldCounts.length; c++)
+    				oldCounts[c] += freqs[c];
+    		}
+    		br.close();
+    	}
+    	System.out.println("Incremental update: " + newRowCount + " new rows, " + candidates.size() + " itemsets rechecked in the old rows");
+    	
+    	// keep the itemsets that are frequent in all the rows
+    	numRows = previousRows + newRowCount;
+    	transactions = null;
+    	itemBitmaps = null;
+    	completeSetList = new ArrayList<Itemset>();
+    	suppRates = new SupportTable(previousSets.size() + candidates.size());
+    	for(int i = 0; i < previousSets.size(); i++)
+    	{
+    		int freq = previousTable.get(previousSets.get(i)) + newCounts[i];
+    		if((double)freq / (double)numRows >= minSupport)
+    		{
+    			completeSetList.add(previousSets.get(i));
+    			suppRates.put(previousSets.get(i), freq);
+    		}
+    	}
+    	for(int c = 0; c < candidates.size(); c++)
+    	{
+    		int freq = oldCounts[c] + localRates.get(candidates.get(c));
+    		if((double)freq / (double)numRows >= minSupport)
+    		{
+    			completeSetList.add(candidates.get(c));
+    			suppRates.put(candidates.get(c), freq);
+    		}
+    	}
+    	Collections.sort(completeSetList);
+    	return true;
+    }
+    
+    /*
+     * method to load the results of the last run from the given state file, returning false
+     * if there is none
+     */
+    private boolean loadState(String stateFile) throws IOException
+    {
+    	File file = new File(stateFile);
+    	if(!file.exists())
+    		return false;
+    	
+    	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    	if(in.readInt() != STATE_VERSION){
+    		in.close();
+    		System.out.println("Unrecognized state file, mining the whole file.");
+    		return false;
+    	}
+    	previousSupport = in.readDouble();
+    	previousRows = in.readInt();
+    	
+    	int attributes = in.readInt();
+    	previousAttributes = new String[attributes];
+    	dictionary = new ArrayList<HashMap<String, Integer>>(attributes);
+    	attrMap = new HashMap<Integer, String>();
+    	itemMap = new HashMap<Integer, String>();
+    	for(int i = 0; i < attributes; i++)
+    	{
+    		previousAttributes[i] = in.readUTF();
+    		dictionary.add(new HashMap<String, Integer>());
+    		int values = in.readInt();
+    		for(int v = 0; v < values; v++)
+    		{
+    			String value = in.readBoolean() ? in.readUTF() : null;
+    			int num = in.readInt();
+    			dictionary.get(i).put(value, num);
+    			itemMap.put(num, value);
+    			attrMap.put(num, previousAttributes[i]);
+    		}
+    	}
+    	
+    	int sets = in.readInt();
+    	previousSets = new ArrayList<Itemset>(sets);
+    	previousTable = new SupportTable(sets);
+    	for(int s = 0; s < sets; s++)
+    	{
+    		int[] items = new int[in.readInt()];
+    		for(int k = 0; k < items.length; k++)
+    			items[k] = in.readInt();
+    		Itemset curr = new Itemset(items);
+    		previousSets.add(curr);
+    		previousTable.put(curr, in.readInt());
+    	}
+    	in.close();
+    	return true;
+    }
+    
+    /*
+     * method to save the item numbering and the frequent itemsets with their frequencies,
+     * so that the next run can update them incrementally or reuse them
+     */
+    private void saveState(String stateFile) throws IOException
+    {
+    	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(stateFile)));
+    	out.writeInt(STATE_VERSION);
+    	out.writeDouble(minSupport);
+    	out.writeInt(numRows);
+    	
+    	out.writeInt(numAttributes);
+    	for(int i = 0; i < numAttributes; i++)
+    	{
+    		out.writeUTF(attributeNames[i]);
+    		out.writeInt(dictionary.get(i).size());
+    		for(Map.Entry<String, Integer> entry : dictionary.get(i).entrySet())
+    		{
+    			out.writeBoolean(entry.getKey() != null);
+    			if(entry.getKey() != null)
+    				out.writeUTF(entry.getKey());
+    			out.writeInt(entry.getValue());
+    		}
+    	}
+    	
+    	out.writeInt(completeSetList.size());
+    	for(Itemset curr : completeSetList)
+    	{
+    		out.writeInt(curr.size());
+    		for(int num : curr.items())
+    			out.writeInt(num);
+    		out.writeInt(suppRates.get(curr));
+    	}
+    	out.close();
+    }
+    
+    /*
+     * method to find the frequent itemsets of a file too large to load, using the two passes of
+     * the SON algorithm. The first pass mines each partition of the file on its own at the same
+     * support rate; any itemset frequent in the whole file must be frequent in at least one partition.
+     * The second pass counts every itemset found in the first pass over the whole file.
+     */
+    private void mineInPartitions() throws IOException
+    {
+    	attrMap = new HashMap<Integer, String>();
+    	itemMap = new HashMap<Integer, String>();
+    	dictionary = new ArrayList<HashMap<String, Integer>>(numAttributes);
+    	for(int i = 0; i < numAttributes; i++)
+    		dictionary.add(new HashMap<String, Integer>());
+    	
+    	ArrayList<Itemset> candidates = new ArrayList<Itemset>();
+    	SupportTable candidateTable = new SupportTable();
+    	ArrayList<int[]> partition = new ArrayList<int[]>(partitionSize);
+    	int totalRows = 0;
+    	
+    	// first pass: mine each partition for its locally frequent itemsets
+    	BufferedReader br = openData();
+    	for(int p = 1; readPartition(br, partition, partitionSize); p++)
     	{
-    		int freq = 0; // keep track of the frequency of this item set
-    		    		
-    		// check which tuple contain this itemset	
-    		for(int j = 0; j < numRows; j++)
-    		{					
-    			if(itemSetList[j].containsAll(curr)){
-    				freq++;
-    			}    										
+    		System.out.println("Partition " + p + ": " + partition.size() + " rows");
+    		totalRows += partition.size();
+    		
+    		completeSetList = new ArrayList<Itemset>();
+    		suppRates = new SupportTable();
+    		loadPartition(partition);
+    		mineFrequentItemsets();
+    		
+    		for(Itemset curr : completeSetList)
+    		{
+    			if(!candidateTable.containsKey(curr))
+    			{
+    				candidateTable.put(curr, 0);
+    				candidates.add(curr);
+    			}
     		}
+    	}
+    	br.close();
+    	System.out.println("Candidates from all partitions: " + candidates.size());
+    	
+    	// second pass: count the candidates over the whole file
+    	int[] counts = new int[candidates.size()];
+    	br = openData();
+    	while(readPartition(br, partition, partitionSize))
+    	{
+    		loadPartition(partition);
+    		if(vertical)
+    			buildBitmaps();
+    		
+    		int[] freqs = countCandidates(candidates);
+    		for(int c = 0; c < counts.length; c++)
+    			counts[c] += freqs[c];
+    	}
+    	br.close();
+    	
+    	numRows = totalRows;
+    	transactions = null;
+    	itemBitmaps = null;
+    	completeSetList = new ArrayList<Itemset>();
+    	suppRates = new SupportTable(candidates.size());
+    	for(int c = 0; c < counts.length; c++)
+    	{
+    		if((double)counts[c] / (double)numRows >= minSupport)
+    		{
+    			completeSetList.add(candidates.get(c));
+    			suppRates.put(candidates.get(c), counts[c]);
+    		}
+    	}
+    	Collections.sort(completeSetList);
+    	System.out.println("Frequent itemsets in the whole file: " + completeSetList.size());
+    }
+    
+    /*
+     * method to read and encode up to size rows, returning false if there are none left
+     */
+    private boolean readPartition(BufferedReader br, ArrayList<int[]> partition, int size) throws IOException
+    {
+    	partition.clear();
+    	String[] items;
+    	while(partition.size() < size && (items = readRow(br)) != null)
+    		partition.add(encodeRow(items));
+    	return !partition.isEmpty();
+    }
+    
+    /*
+     * method to make the given partition the rows that are mined and counted
+     */
+    private void loadPartition(ArrayList<int[]> partition)
+    {
+    	transactions = new TransactionStore();
+    	for(int[] row : partition)
+    		transactions.add(row);
+    	numRows = transactions.size();
+    }
+    
+    /*
+     * method to convert a row to its sorted item numbers, numbering any values not seen before
+     */
+    private int[] encodeRow(String[] row)
+    {
+    	int[] numbers = new int[row.length];
+    	int length = 0;
+    	for(int k = 0; k < row.length; k++)
+    	{
+    		int i = basket ? 0 : k; // the attribute of the k-th value
+    		if(isExcluded(i, row[k]))
+    			continue;
     		
+    		Integer num = dictionary.get(i).get(row[k]);
+    		if(num == null)
+    		{
+    			num = itemMap.size();
+    			dictionary.get(i).put(row[k], num);
+    			itemMap.put(num, row[k]);
+    			attrMap.put(num, attributeNames[i]);
+    		}
+    		numbers[length++] = num;
+    	}
+    	Arrays.sort(numbers, 0, length);
+    	
+    	// a basket may list the same item more than once
+    	int unique = 0;
+    	for(int k = 0; k < length; k++){
+    		if(unique == 0 || numbers[k] != numbers[unique - 1])
+    			numbers[unique++] = numbers[k];
+    	}
+    	return Arrays.copyOf(numbers, unique);
+    }
+    
+    /*
+     * method to scan candidate itemsets for frequencies and store the frequent itemsets in L
+     */
+    private void scanFrequencies(ArrayList<Itemset> C, int size) 
+    {
+    	ArrayList<Itemset> L = new ArrayList<Itemset>();
+    	
+    	int[] freqs = countCandidates(C);
+    	
+    	// for each candidate itemset, add to L if it is a frequent itemset
+    	for(int c = 0; c < C.size(); c++)
+    	{
+    		Itemset curr = C.get(c);
+    		int freq = freqs[c]; // the frequency of this item set
     		
     		// add item sets to L if they have the required frequency
     		double supp = (double)freq / (double)numRows;
     		
-    		//if(freq >= minFreq){
     		if(supp >= minSupport){	
     			L.add(curr);	
-    			//double supp = (double)freq / (double)numRows;
-    			suppRates.put(curr, supp);
+    			suppRates.put(curr, freq);
     		} 
 	
     	}    	
     	completeSetList.addAll(L);
     	
-    	// continue only if C contains frequent item sets
-    	if(L.size() > 0)
+    	// keep track of how many candidates were counted at each level
+    	candidateCounts.add(C.size());
+    	System.out.println("Level " + size + ": " + C.size() + " candidates, " + L.size() + " frequent itemsets");
+    	
+    	// continue only if C contains frequent item sets, and larger itemsets are wanted
+    	if(L.size() > 0 && (maxLength == 0 || size < maxLength))
     		generateCandidates(L, size+1);   	
     	
     }
     
     /*
-     * method to generate candidate item sets
+     * method to find the frequent itemsets with the FP-Growth algorithm instead of the
+     * level-wise scans, storing them in completeSetList and suppRates in the same way
      */
-    private void generateCandidates(ArrayList<Set<Integer>> L, int size)
+    private void mineFPGrowth()
     {
-    	//candidate item set to be generated
-    	ArrayList<Set<Integer>> C = new ArrayList<Set<Integer>>();
+    	FPTree tree = new FPTree(transactions, itemMap.size(), getMinCount(), maxLength);
+    	
+    	ArrayList<Itemset> itemsets = new ArrayList<Itemset>();
+    	tree.mine(new int[0], itemsets, suppRates);
+    	
+    	// list the itemsets by size, as the level-wise search would
+    	completeSetList.addAll(itemsets);
+    	Collections.sort(completeSetList);
+    	System.out.println("FP-Growth: " + itemsets.size() + " frequent itemsets");
+    }
+    
+    /*
+     * method to find the frequent itemsets depth first with Eclat, or dEclat, which keeps diffsets
+     * instead of tid-lists. With more than one thread, each top-level prefix class is a separate task.
+     */
+    private void mineEclat()
+    {
+    	EclatMiner miner = new EclatMiner(transactions, itemMap.size(), getMinCount(), maxLength, engine.equals("declat"));
+    	
+    	if(threads > 1 && pool == null)
+    		pool = new ForkJoinPool(threads);
+    	ArrayList<Itemset> itemsets = new ArrayList<Itemset>();
+    	try {
+    		miner.mine(itemsets, suppRates, threads > 1 ? pool : null);
+    	} catch(InterruptedException | ExecutionException e) {
+    		throw new RuntimeException("Eclat mining failed", e);
+    	}
+    	
+    	// list the itemsets by size, as the level-wise search would
+    	completeSetList.addAll(itemsets);
+    	Collections.sort(completeSetList);
+    	System.out.println("Eclat: " + itemsets.size() + " frequent itemsets");
+    }
+    
+    /*
+     * method to find only the closed or maximal frequent itemsets with the CHARM algorithm.
+     * The supports of the other frequent itemsets, needed for the rules, are worked out by getFrequency.
+     */
+    private void mineClosed()
+    {
+    	CharmMiner miner = new CharmMiner(itemBitmaps, getMinCount());
+    	ArrayList<Itemset> itemsets = new ArrayList<Itemset>();
+    	if(itemsetMode.equals("closed"))
+    		miner.mineClosed(itemsets, suppRates);
+    	else
+    		miner.mineMaximal(itemsets, suppRates);
+    	
+    	completeSetList.addAll(itemsets);
+    	Collections.sort(completeSetList);
+    	
+    	setsByItem = new ArrayList<ArrayList<Itemset>>(itemMap.size());
+    	for(int i = 0; i < itemMap.size(); i++)
+    		setsByItem.add(new ArrayList<Itemset>());
+    	for(Itemset curr : completeSetList){
+    		for(int num : curr.items())
+    			setsByItem.get(num).add(curr);
+    	}
+    	System.out.println("CHARM: " + itemsets.size() + " " + itemsetMode + " frequent itemsets");
+    }
+    
+    /*
+     * returns the smallest frequency that satisfies the minimum support rate
+     */
+    private int getMinCount()
+    {
+    	int minFreq = (int)(minSupport * numRows);
+    	while(minFreq > 0 && (double)(minFreq - 1) / (double)numRows >= minSupport)
+    		minFreq--;
+    	while((double)minFreq / (double)numRows < minSupport)
+    		minFreq++;
+    	return Math.max(minFreq, 1);
+    }
+    
+    /*
+     * method to count the number of rows that contain each candidate itemset.
+     * With more than one thread, the rows are split into ranges that are counted in parallel
+     * and the per-range counts are added together, so the result does not depend on the thread count.
+     */
+    private int[] countCandidates(ArrayList<Itemset> C)
+    {
+    	// in vertical mode the ranges are measured in 64-row bitmap words
+    	int units = vertical ? (numRows + 63) / 64 : numRows;
+    	
+    	// otherwise each row walks a trie of the candidates, shared by all the threads
+    	CandidateTrie trie = vertical ? null : new CandidateTrie(C);
     	
+    	if(threads <= 1 || C.isEmpty())
+    		return countRange(C, trie, 0, units);
     	
-    	ArrayList<Integer>newSet = new ArrayList<Integer>();
+    	if(pool == null)
+    		pool = new ForkJoinPool(threads);
+    	int grain = Math.max(units / (threads * 4), vertical ? 16 : 1024);
+    	return pool.invoke(new CountTask(C, trie, 0, units, grain));
+    }
+    
+    /*
+     * counts the candidates in rows [from, to), or bitmap words [from, to) in vertical mode
+     */
+    private int[] countRange(ArrayList<Itemset> C, CandidateTrie trie, int from, int to)
+    {
+    	int[] freqs = new int[C.size()];
     	
+    	if(!vertical)
+    	{
+    		// each tuple adds one to the candidates it contains, read straight from the store
+    		TransactionStore.Cursor cursor = transactions.cursor(from);
+    		int[] row = new int[transactions.getMaxRowLength()];
+    		for(int j = from; j < to; j++)
+    			trie.count(row, cursor.next(row), freqs);
+    		return freqs;
+    	}
     	
-    	// combine all elements into one big set
-    	for(int i = 0; i < L.size(); i++)
+    	for(int c = 0; c < C.size(); c++)
     	{
-    		Set<Integer>set1 = L.get(i);
-    		for(int num : set1){
-    			if(!newSet.contains(num))
-    				newSet.add(num);
+    		int freq = 0;
+    		int[] curr = C.get(c).items();
+    		
+    		// AND the bitmaps of the items together one word at a time and count the bits left
+    		for(int w = from; w < to; w++)
+    		{
+    			long word = itemBitmaps[curr[0]][w];
+    			for(int k = 1; k < curr.length && word != 0; k++)
+    				word &= itemBitmaps[curr[k]][w];
+    			freq += Long.bitCount(word);
     		}
+    		freqs[c] = freq;
     	}
-
-    	C = getSubsets(newSet, size);
+    	return freqs;
+    }
+    
+    /*
+     * Fork/join task that counts the candidates in a range of rows, splitting the range in half
+     * until it is no larger than grain
+     */
+    private class CountTask extends RecursiveTask<int[]>
+    {
+    	private static final long serialVersionUID = 1L;
+    	
+    	private ArrayList<Itemset> C;
+    	private CandidateTrie trie;
+    	private int from, to, grain;
+    	
+    	CountTask(ArrayList<Itemset> C, CandidateTrie trie, int from, int to, int grain)
+    	{
+    		this.C = C;
+    		this.trie = trie;
+    		this.from = from;
+    		this.to = to;
+    		this.grain = grain;
+    	}
+    	
+    	protected int[] compute()
+    	{
+    		if(to - from <= grain)
+    			return countRange(C, trie, from, to);
+    		
+    		int mid = (from + to) >>> 1;
+    		CountTask left = new CountTask(C, trie, from, mid, grain);
+    		left.fork();
+    		int[] freqs = new CountTask(C, trie, mid, to, grain).compute();
+    		int[] leftFreqs = left.join();
+    		for(int c = 0; c < freqs.length; c++)
+    			freqs[c] += leftFreqs[c];
+    		return freqs;
+    	}
+    }
+    
+    /*
+     * method to generate candidate item sets of the given size from the frequent itemsets in L
+     */
+    private void generateCandidates(ArrayList<Itemset> L, int size)
+    {
+    	//candidate item set to be generated
+    	ArrayList<Itemset> C = aprioriGen(L, size, suppRates);
     	
     	scanFrequencies(C, size);
     }
     
     /*
-     * This method is based on a method found on stackoverflow.com
-     * http://stackoverflow.com/questions/12548312/find-all-subsets-of-length-k-in-an-array, retrieved February 27, 2014.
-     * 
-     * The method recursively finds the subsets of length k of a given superset, and stores them in a list
+     * method to generate the itemsets of the given size whose (size-1)-subsets are all in L,
+     * using the Apriori join and prune steps. frequent must contain every itemset in L.
+     */
+    private static ArrayList<Itemset> aprioriGen(ArrayList<Itemset> L, int size, SupportTable frequent)
+    {
+    	ArrayList<Itemset> C = new ArrayList<Itemset>();
+    	
+    	// sort the itemsets so that itemsets sharing the same (size-2)-prefix are next to each other
+    	ArrayList<Itemset> sorted = new ArrayList<Itemset>(L);
+    	Collections.sort(sorted);
+    	
+    	// join step: combine each pair of itemsets that share all but their last item
+    	for(int i = 0; i < sorted.size(); i++)
+    	{
+    		int[] set1 = sorted.get(i).items();
+    		for(int j = i + 1; j < sorted.size(); j++)
+    		{
+    			int[] set2 = sorted.get(j).items();
+    			if(!samePrefix(set1, set2, size - 2))
+    				break; // the list is sorted, so no later itemset shares the prefix either
+    			
+    			Itemset candidate = sorted.get(i).with(set2[size - 2]);
+    			
+    			// prune step: every (size-1)-subset of the candidate must be in L.
+    			// set1 and set2 are the subsets without the last two items, so only check the others
+    			boolean prune = false;
+    			for(int k = 0; k < size - 2 && !prune; k++)
+    			{
+    				if(!frequent.containsKey(candidate.without(k)))
+    					prune = true;
+    			}
+    			
+    			if(!prune)
+    				C.add(candidate);
+    		}
+    	}
+    	return C;
+    }
+    
+    /*
+     * returns true if the first n items of the two sorted itemsets are equal
      */
-    private static void getSubsets(ArrayList<Integer> superSet, int k, int idx, Set<Integer> current,List<Set<Integer>> solution) 
+    private static boolean samePrefix(int[] set1, int[] set2, int n)
     {
-        //successful stop clause
-        if (current.size() == k) {
-            solution.add(new HashSet<>(current));
-            return;
-        }
-        //unseccessful stop clause
-        if (idx == superSet.size()) return;
-        Integer x = superSet.get(idx);
-        current.add(x);
-        //"guess" x is in the subset
-        getSubsets(superSet, k, idx+1, current, solution);
-        current.remove(x);
-        //"guess" x is not in the subset
-        getSubsets(superSet, k, idx+1, current, solution);
+    	for(int k = 0; k < n; k++){
+    		if(set1[k] != set2[k])
+    			return false;
+    	}
+    	return true;
     }
+    
     /*
-     * This method is based on a method found on stackoverflow.com
-     * http://stackoverflow.com/questions/12548312/find-all-subsets-of-length-k-in-an-array, retrieved February 27, 2014.
-     * 
-     * The method recursively returns a list of all subsets of length k of the given superset.
+     * returns the support rate of the given frequent itemset
      */
-    public static ArrayList<Set<Integer>> getSubsets(ArrayList<Integer> superSet, int k) {
-        ArrayList<Set<Integer>> res = new ArrayList<>();
-        getSubsets(superSet, k, 0, new HashSet<Integer>(), res);
-        return res;
+    private double getSupport(Itemset itemset)
+    {
+    	return (double)getFrequency(itemset) / (double)numRows;
     }
     
     /*
-     * method to generate the association rules
+     * returns the number of rows containing the given frequent itemset, or -1 if it is unknown.
+     * In closed mode this is the highest count of the closed itemsets containing it, and in
+     * maximal mode it is counted from the item bitmaps.
      */
-    private void generateRules(ArrayList<Set<Integer>> list) throws IOException
+    private int getFrequency(Itemset itemset)
     {
-
-    	int ruleIndex = 1; //counter to keep track of rule number
-    	  	
-    	String rules = "";
-    	ArrayList<String> allRules = new ArrayList<String>();
-    	int i = 0;
-    	for(Set<Integer> curr : list)
-    	{
-    		// only look at sets with k >= 2
-    		if(curr.size() > 1)
+    	int freq = suppRates.get(itemset);
+    	if(freq >= 0 || itemsetMode.equals("all"))
+    		return freq;
+    	
+    	if(itemsetMode.equals("closed"))
+    	{
+    		// only look through the closed itemsets of the least common item
+    		ArrayList<Itemset> list = setsByItem.get(itemset.get(0));
+    		for(int num : itemset.items()){
+    			if(setsByItem.get(num).size() < list.size())
+    				list = setsByItem.get(num);
+    		}
+    		for(Itemset curr : list){
+    			if(curr.containsAll(itemset))
+    				freq = Math.max(freq, suppRates.get(curr));
+    		}
+    		return freq;
+    	}
+    	
+    	freq = 0;
+    	int[] items = itemset.items();
+    	for(int w = 0; w < itemBitmaps[items[0]].length; w++)
+    	{
+    		long word = itemBitmaps[items[0]][w];
+    		for(int k = 1; k < items.length && word != 0; k++)
+    			word &= itemBitmaps[items[k]][w];
+    		freq += Long.bitCount(word);
+    	}
+    	return freq;
+    }
+    
+    /*
+     * An association rule antecedent => consequent
+     */
+    private static class Rule
+    {
+    	Itemset antecedent, consequent;
+    	double confidence;
+    	
+    	Rule(Itemset antecedent, Itemset consequent, double confidence)
+    	{
+    		this.antecedent = antecedent;
+    		this.consequent = consequent;
+    		this.confidence = confidence;
+    	}
+    }
+    
+    /*
+     * method to find the rules s => curr - s with enough confidence from one frequent itemset.
+     * Consequents are grown one item at a time, and since confidence can only drop as the
+     * consequent grows, only consequents that passed are joined into the next size.
+     */
+    private ArrayList<Rule> getRules(Itemset curr, double minConfidence)
+    {
+    	ArrayList<Rule> rules = new ArrayList<Rule>();
+    	double supp = getSupport(curr);
+    	
+    	if(requiredItem != null)
+    	{
+    		boolean found = false;
+    		for(int num : curr.items())
+    			found = found || requiredItem[num];
+    		if(!found)
+    			return rules;
+    	}
+    	
+    	// with consequent-only items, the consequent must be exactly the itemset's consequent-only items
+    	if(consequentItem != null)
+    	{
+    		int[] consequent = new int[curr.size()];
+    		int length = 0;
+    		for(int num : curr.items()){
+    			if(consequentItem[num])
+    				consequent[length++] = num;
+    		}
+    		if(length == 0 || length == curr.size())
+    			return rules;
+    		
+    		Itemset h = new Itemset(Arrays.copyOf(consequent, length));
+    		Itemset s = curr.minus(h);
+    		double conf = supp / getSupport(s);
+    		if(conf >= minConfidence)
+    			rules.add(new Rule(s, h, conf));
+    		return rules;
+    	}
+    	
+    	// start with the consequents of size 1
+    	ArrayList<Itemset> H = new ArrayList<Itemset>();
+    	for(int k = 0; k < curr.size(); k++)
+    		H.add(new Itemset(curr.get(k)));
+    	
+    	for(int m = 1; m < curr.size() && !H.isEmpty(); m++)
+    	{
+    		ArrayList<Itemset> passed = new ArrayList<Itemset>();
+    		SupportTable passedTable = new SupportTable(H.size());
+    		
+    		for(Itemset h : H)
     		{
-    			String format = "%1.2f";
-    			
-    			String support = String.format(format, suppRates.get(curr));
-    			String strConf;   			
+    			Itemset s = curr.minus(h);
+    			if(getFrequency(s) < 0){
+    				System.out.println("Cannot find supp rate");
+    				continue;
+    			}
     			
-    			ArrayList<Integer> superset = new ArrayList<Integer>();
-    			superset.addAll(curr);
+    			double conf = supp / getSupport(s);
+    			if(conf >= minConfidence)
+    			{
+    				rules.add(new Rule(s, h, conf));
+    				passed.add(h);
+    				passedTable.put(h, 0);
+    			}
+    		}
+    		
+    		H = aprioriGen(passed, m + 1, passedTable);
+    	}
+    	return rules;
+    }
+    
+    /*
+     * method to mark the items named by the rule constraints, before the rules are generated
+     */
+    private void setUpRuleConstraints()
+    {
+    	if(!required.isEmpty())
+    	{
+    		requiredItem = new boolean[itemMap.size()];
+    		for(int num = 0; num < itemMap.size(); num++)
+    			requiredItem[num] = matches(required, num);
+    	}
+    	if(!consequentOnly.isEmpty())
+    	{
+    		consequentItem = new boolean[itemMap.size()];
+    		for(int num = 0; num < itemMap.size(); num++)
+    			consequentItem[num] = matches(consequentOnly, num);
+    	}
+    }
+    
+    /*
+     * method to generate the rules for every (support, confidence) pair of the sweep.
+     * The frequent itemsets are mined once, at the lowest support rate, and cached in a file named
+     * after a hash of the data file; a later sweep of the same file with no lower support rate
+     * reads them from the cache instead. Each pair's rules come from the itemsets that meet its
+     * support rate, and the rule files of all the pairs are written at the same time.
+     */
+    private void runSweep() throws IOException
+    {
+    	double lowest = 1;
+    	for(double[] pair : sweep)
+    		lowest = Math.min(lowest, pair[0]);
+    	
+    	String cacheFile = "Itemsets-" + hashInput() + ".cache";
+    	if(loadState(cacheFile) && Arrays.equals(attributeNames, previousAttributes) && previousSupport <= lowest)
+    	{
+    		System.out.println("Using the frequent itemsets cached in " + cacheFile);
+    		minSupport = previousSupport;
+    		numRows = previousRows;
+    		completeSetList = previousSets;
+    		suppRates = previousTable;
+    	}
+    	else
+    	{
+    		minSupport = lowest;
+    		mineWholeFile();
+    		saveState(cacheFile);
+    	}
+    	previousSets = null;
+    	previousTable = null;
+    	
+    	setUpRuleConstraints();
+    	if(threads > 1 && pool == null)
+    		pool = new ForkJoinPool(threads);
+    	
+    	ExecutorService writers = Executors.newFixedThreadPool(sweep.size());
+    	ArrayList<Future<Object>> tasks = new ArrayList<Future<Object>>();
+    	for(double[] pair : sweep)
+    	{
+    		ArrayList<Itemset> list = new ArrayList<Itemset>();
+    		for(Itemset curr : completeSetList){
+    			if(getSupport(curr) >= pair[0])
+    				list.add(curr);
+    		}
+    		
+    		String suffix = "-" + pair[0] + "-" + pair[1];
+    		String store = storeFile == null ? null : storeFile + suffix;
+    		tasks.add(writers.submit(() -> {
+    			generateRules(list, pair[0], pair[1], "Rules" + suffix, store);
+    			System.out.println("Support=" + pair[0] + " Confidence=" + pair[1] + ": " + list.size() + " frequent itemsets, rules written to Rules" + suffix);
+    			return null;
+    		}));
+    	}
+    	try {
+    		for(Future<Object> task : tasks)
+    			task.get();
+    	} catch(InterruptedException | ExecutionException e) {
+    		throw new IOException("Rule generation failed", e);
+    	} finally {
+    		writers.shutdown();
+    	}
+    }
+    
+    /*
+     * returns a hash of the data file, along with the options that change which itemsets are mined
+     */
+    private String hashInput() throws IOException
+    {
+    	MessageDigest digest;
+    	try {
+    		digest = MessageDigest.getInstance("SHA-256");
+    	} catch(NoSuchAlgorithmException e) {
+    		throw new IOException("Cannot hash the data file", e);
+    	}
+    	
+    	FileInputStream in = new FileInputStream(filename);
+    	byte[] buffer = new byte[1 << 16];
+    	int n;
+    	while((n = in.read(buffer)) > 0)
+    		digest.update(buffer, 0, n);
+    	in.close();
+    	digest.update((excluded + " " + maxLength).getBytes(StandardCharsets.UTF_8));
+    	
+    	StringBuilder hex = new StringBuilder();
+    	for(byte b : Arrays.copyOf(digest.digest(), 8))
+    		hex.append(String.format("%02x", b));
+    	return hex.toString();
+    }
+    
+    /*
+     * method to generate the association rules.
+     * Rules are written to a temporary file as they are found, a batch of itemsets at a time,
+     * so only one batch of rules is held in memory. The Rules file is then written as the
+     * summary followed by the contents of the temporary file.
+     * The rules meeting minConfidence are written to rulesFile, and to a rule store if storeFile
+     * is not null; minSupport is only used for the summary.
+     */
+    private void generateRules(ArrayList<Itemset> list, double minSupport, double minConfidence, String rulesFile, String storeFile) throws IOException
+    {
+    	int ruleIndex = 1; //counter to keep track of rule number
+    	
+    	File tempFile = File.createTempFile("Rules", ".tmp", new File("."));
+    	try
+    	{
+    		try(BufferedWriter rulesOut = new BufferedWriter(new FileWriter(tempFile), 1 << 16))
+    		{
+    			StringBuilder rule = new StringBuilder(); // reused to format each rule
+    			Formatter formatter = new Formatter(rule);
     			
-    			// get the subsets of this set
-    			ArrayList<Set<Integer>> subsets = new ArrayList<Set<Integer>>();
-    			for(int x = 1; x <= superset.size() -1; x++){
-    				subsets.addAll(getSubsets(superset, x));
+    			RuleStore.Writer ruleStore = null;
+    			if(storeFile != null)
+    			{
+    				String[] attributes = new String[itemMap.size()];
+    				String[] values = new String[itemMap.size()];
+    				for(int num = 0; num < attributes.length; num++){
+    					attributes[num] = attrMap.get(num);
+    					values[num] = itemMap.get(num);
+    				}
+    				ruleStore = new RuleStore.Writer(storeFile, attributes, values, numRows, minSupport, minConfidence);
     			}
-    			String attr, val;
     			
-    			// for each subset s, generate association rules s => L - s
-    			for(Set<Integer> s : subsets)
-    			{	   				
-    				Set<Integer>diff = new HashSet<Integer>();
-    				diff.addAll(curr);
-    				diff.removeAll(s);   
-    				
-    				double diffSupp = 0;
-    				if(!suppRates.containsKey(s))
-    					System.out.println("Cannot find supp rate");
-    				else
-    					diffSupp = suppRates.get(s);
-    				
-    				double conf = suppRates.get(curr) / (double)diffSupp;
-    				strConf = String.format(format, conf);
-    				
-    				if(conf >= minConfidence)
+    			// only look at sets with k >= 2
+    			ArrayList<Itemset> batch = new ArrayList<Itemset>();
+    			for(Itemset curr : list)
+    			{
+    				if(curr.size() > 1)
     				{
-    					rules = "";
-    					rules = rules + "Rule#" + ruleIndex + ": (Support=" + support + ", Confidence=" + strConf + ")\n";
-        				rules = rules + "{ ";
-        				
-        				//System.out.print(rules);
-        				for(int num : s)
-        				{
-        					attr = attrMap.get(num);
-        					val = itemMap.get(num);
-        					rules = rules + attr + "=" + val + " ";					
-        				}
-        				rules += " }\n----> { ";
-        				for(int num : diff)
-        				{
-        					attr = attrMap.get(num);
-        					val = itemMap.get(num);
-        					rules += attr + "=" + val + " ";	
-        				}
-        				rules += " }\n\n";
-        				allRules.add(rules);
-        				ruleIndex++;
-    				}   				  				
+    					batch.add(curr);
+    					if(batch.size() == RULE_BATCH_SIZE)
+    					{
+    						ruleIndex = writeRules(batch, minConfidence, ruleIndex, rulesOut, rule, formatter, ruleStore);
+    						batch.clear();
+    					}
+    				}
     			}
+    			ruleIndex = writeRules(batch, minConfidence, ruleIndex, rulesOut, rule, formatter, ruleStore);
+    			if(ruleStore != null)
+    				ruleStore.close();
+    		}
+    		
+    		try(FileOutputStream out = new FileOutputStream(rulesFile);
+    			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out));
+    			FileInputStream in = new FileInputStream(tempFile))
+    		{
+    			bw.append("Summary:");
+    			bw.newLine();
+    			bw.append("Total rows in the original set: " + numRows);
+    			bw.newLine();
+    			bw.append("Total rules discovered: " + (ruleIndex - 1));
+    			bw.newLine();
+    			bw.append("The selected measures: Support=" + minSupport + " Confidence=" + minConfidence);
+    			bw.newLine();
+    			bw.append("----------------------------------------------------------------------");
+    			bw.newLine();
+    			bw.newLine();
+    			bw.append("Rules:");
+    			bw.newLine(); bw.newLine();
+    			bw.flush();
+    			
+    			// copy the rules after the summary
+    			FileChannel inChannel = in.getChannel();
+    			long position = 0, length = inChannel.size();
+    			while(position < length)
+    				position += inChannel.transferTo(position, length - position, out.getChannel());
+    			
+    			bw.newLine();
+    		}
+    	}
+    	finally {
+    		tempFile.delete();
+    	}
+    }
+    
+    /*
+     * method to find the rules of a batch of frequent itemsets, in parallel if more than one thread
+     * was chosen, and write them to out (and ruleStore, if not null) numbered from ruleIndex.
+     * Returns the next rule number.
+     */
+    private int writeRules(ArrayList<Itemset> batch, double minConfidence, int ruleIndex, BufferedWriter out, StringBuilder rule, Formatter formatter, RuleStore.Writer ruleStore) throws IOException
+    {
+    	List<ArrayList<Rule>> rulesPerSet;
+    	if(threads <= 1)
+    	{
+    		rulesPerSet = new ArrayList<ArrayList<Rule>>();
+    		for(Itemset curr : batch)
+    			rulesPerSet.add(getRules(curr, minConfidence));
+    	}
+    	else
+    	{
+    		if(pool == null)
+    			pool = new ForkJoinPool(threads);
+    		try {
+    			// the collected list keeps the order of the batch, so the output is the same on any thread count
+    			rulesPerSet = pool.submit(() -> batch.parallelStream().map(curr -> getRules(curr, minConfidence)).collect(Collectors.toList())).get();
+    		} catch(InterruptedException | ExecutionException e) {
+    			throw new IOException("Rule generation failed", e);
     		}
-    		i++;
     	}
     	
-    	BufferedWriter bw = new BufferedWriter(new FileWriter("Rules"));
-    	
-    	bw.append("Summary:");
-    	bw.newLine();
-    	bw.append("Total rows in the original set: " + numRows);
-    	bw.newLine();
-    	bw.append("Total rules discovered: " + allRules.size());
-    	bw.newLine();
-    	bw.append("The selected measures: Support=" + minSupport + " Confidence=" + minConfidence);
-    	bw.newLine();
-    	bw.append("----------------------------------------------------------------------");
-    	bw.newLine();
-    	bw.newLine();
-    	bw.append("Rules:");
-    	bw.newLine(); bw.newLine();
-    	for(String s : allRules)
+    	for(int i = 0; i < batch.size(); i++)
     	{
-    		bw.append(s);
+    		double support = getSupport(batch.get(i));
+    		
+    		for(Rule r : rulesPerSet.get(i))
+    		{
+    			rule.setLength(0);
+    			rule.append("Rule#").append(ruleIndex).append(": (Support=");
+    			formatter.format("%1.2f", support);
+    			rule.append(", Confidence=");
+    			formatter.format("%1.2f", r.confidence);
+    			rule.append(")\n{ ");
+    			
+    			for(int num : r.antecedent.items())
+    				rule.append(attrMap.get(num)).append('=').append(itemMap.get(num)).append(' ');
+    			rule.append(" }\n----> { ");
+    			for(int num : r.consequent.items())
+    				rule.append(attrMap.get(num)).append('=').append(itemMap.get(num)).append(' ');
+    			rule.append(" }\n\n");
+    			
+    			out.append(rule);
+    			if(ruleStore != null)
+    				ruleStore.add(r.antecedent.items(), r.consequent.items(), support, r.confidence);
+    			ruleIndex++;
+    		}
     	}
-    	bw.newLine();
-    	bw.close();
+    	return ruleIndex;
     }
     
     
     public static void main(String[] args) throws IOException
     {
-		new AssociationRuleGenerator();
+		new AssociationRuleGenerator(args);
     }
 	
 	
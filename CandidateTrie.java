@@ -0,0 +1,112 @@
+/*
+ * A prefix trie over a set of candidate itemsets, used to count them in one walk per row.
+ *
+ * Each path from the root spells the sorted items of a candidate. Counting a sorted row only
+ * follows the children whose item is in the row, so the cost per row depends on the candidates
+ * the row actually contains rather than on the number of candidates.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+public class CandidateTrie {
+
+	private TrieNode root;
+
+	/*
+	 * A trie node: its children in ascending item order, and the candidate ending here, if any
+	 */
+	private static class TrieNode {
+		int[] keys;
+		TrieNode[] children;
+		int candidate = -1;
+		TreeMap<Integer, TrieNode> building = new TreeMap<Integer, TrieNode>(); // only used while building
+	}
+
+	/*
+	 * Builds the trie; the count of candidate c is stored at index c when counting.
+	 */
+	public CandidateTrie(ArrayList<Itemset> candidates)
+	{
+		root = new TrieNode();
+		for(int c = 0; c < candidates.size(); c++)
+		{
+			TrieNode node = root;
+			for(int item : candidates.get(c).items())
+			{
+				TrieNode child = node.building.get(item);
+				if(child == null)
+				{
+					child = new TrieNode();
+					node.building.put(item, child);
+				}
+				node = child;
+			}
+			node.candidate = c;
+		}
+		freeze(root);
+	}
+
+	/*
+	 * converts the children maps used while building into sorted arrays
+	 */
+	private static void freeze(TrieNode node)
+	{
+		node.keys = new int[node.building.size()];
+		node.children = new TrieNode[node.building.size()];
+		int i = 0;
+		for(Integer item : node.building.keySet())
+		{
+			node.keys[i] = item;
+			node.children[i] = node.building.get(item);
+			freeze(node.children[i]);
+			i++;
+		}
+		node.building = null;
+	}
+
+	/*
+	 * adds one to the count of every candidate contained in the given sorted row
+	 */
+	public void count(int[] row, int[] counts)
+	{
+		count(root, row, row.length, 0, counts);
+	}
+
+	/*
+	 * counts with only the first length items of row
+	 */
+	public void count(int[] row, int length, int[] counts)
+	{
+		count(root, row, length, 0, counts);
+	}
+
+	private static void count(TrieNode node, int[] row, int length, int from, int[] counts)
+	{
+		// walk the row and the node's children together, since both are sorted
+		int[] keys = node.keys;
+		int k = 0;
+		for(int i = from; i < length && k < keys.length; i++)
+		{
+			if(keys[k] < row[i])
+			{
+				k = Arrays.binarySearch(keys, k, keys.length, row[i]);
+				if(k < 0)
+				{
+					k = -k - 1;
+					continue;
+				}
+			}
+			if(k < keys.length && keys[k] == row[i])
+			{
+				TrieNode child = node.children[k];
+				if(child.candidate >= 0)
+					counts[child.candidate]++;
+				if(child.keys.length > 0)
+					count(child, row, length, i + 1, counts);
+				k++;
+			}
+		}
+	}
+}
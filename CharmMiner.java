@@ -0,0 +1,213 @@
+/*
+ * Finds the closed frequent itemsets (itemsets with no superset of the same support)
+ * with the CHARM algorithm, and optionally reduces them to the maximal frequent itemsets.
+ *
+ * The search is depth first over item bitmaps. When the rows of one itemset are a subset of
+ * another's, the two are merged instead of searched separately, and an itemset is only kept
+ * if no closed itemset already found subsumes it.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+public class CharmMiner {
+
+	private long[][] itemBitmaps; // for each item, a bitmap of the rows that contain it
+	private int minCount;
+
+	private ArrayList<Itemset> closedSets;
+	private SupportTable closedCounts;
+	private HashMap<Integer, ArrayList<Itemset>> closedBySupport; // closed itemsets grouped by frequency
+
+	/*
+	 * A branch of the search: the items added on top of the prefix, with the rows containing them
+	 */
+	private static class Node {
+		int[] items;
+		long[] rows;
+		int count;
+		boolean removed;
+
+		Node(int[] items, long[] rows, int count) {
+			this.items = items;
+			this.rows = rows;
+			this.count = count;
+		}
+	}
+
+	public CharmMiner(long[][] itemBitmaps, int minCount)
+	{
+		this.itemBitmaps = itemBitmaps;
+		this.minCount = minCount;
+	}
+
+	/*
+	 * Finds the closed frequent itemsets, adding each to itemsets and its count to supports.
+	 */
+	public void mineClosed(ArrayList<Itemset> itemsets, SupportTable supports)
+	{
+		closedSets = itemsets;
+		closedCounts = supports;
+		closedBySupport = new HashMap<Integer, ArrayList<Itemset>>();
+
+		ArrayList<Node> P = new ArrayList<Node>();
+		for(int item = 0; item < itemBitmaps.length; item++)
+		{
+			int count = count(itemBitmaps[item]);
+			if(count >= minCount)
+				P.add(new Node(new int[] { item }, itemBitmaps[item], count));
+		}
+		charm(new int[0], P);
+	}
+
+	/*
+	 * Finds the maximal frequent itemsets: the closed itemsets with no frequent proper superset.
+	 */
+	public void mineMaximal(ArrayList<Itemset> itemsets, SupportTable supports)
+	{
+		ArrayList<Itemset> closed = new ArrayList<Itemset>();
+		SupportTable counts = new SupportTable();
+		mineClosed(closed, counts);
+
+		// check the largest itemsets first, so a superset is always accepted before its subsets
+		Collections.sort(closed, Collections.reverseOrder());
+		HashMap<Integer, ArrayList<Itemset>> maximalByItem = new HashMap<Integer, ArrayList<Itemset>>();
+		for(Itemset curr : closed)
+		{
+			// only the maximal itemsets containing the first item of curr can be supersets of it
+			ArrayList<Itemset> list = maximalByItem.get(curr.get(0));
+			boolean subsumed = false;
+			if(list != null)
+			{
+				for(int i = 0; i < list.size() && !subsumed; i++)
+					subsumed = list.get(i).containsAll(curr);
+			}
+			if(subsumed)
+				continue;
+
+			itemsets.add(curr);
+			supports.put(curr, counts.get(curr));
+			for(int item : curr.items())
+			{
+				if(!maximalByItem.containsKey(item))
+					maximalByItem.put(item, new ArrayList<Itemset>());
+				maximalByItem.get(item).add(curr);
+			}
+		}
+	}
+
+	/*
+	 * extends the prefix with each branch in P, merging branches whose rows are subsets of each other
+	 */
+	private void charm(int[] prefix, ArrayList<Node> P)
+	{
+		// branches with fewer rows first, so more of the later branches get merged into them
+		Collections.sort(P, (a, b) -> a.count - b.count);
+
+		for(int i = 0; i < P.size(); i++)
+		{
+			Node xi = P.get(i);
+			if(xi.removed)
+				continue;
+
+			int[] items = xi.items;
+			ArrayList<Node> Pi = new ArrayList<Node>();
+			for(int j = i + 1; j < P.size(); j++)
+			{
+				Node xj = P.get(j);
+				if(xj.removed)
+					continue;
+
+				long[] rows = and(xi.rows, xj.rows);
+				int count = count(rows);
+				if(count < minCount)
+					continue;
+
+				if(count == xi.count && count == xj.count)
+				{
+					// same rows: xj always comes with xi
+					xj.removed = true;
+					items = union(items, xj.items);
+				}
+				else if(count == xi.count)
+				{
+					// the rows of xi are a subset of the rows of xj
+					items = union(items, xj.items);
+				}
+				else if(count == xj.count)
+				{
+					// the rows of xj are a subset of the rows of xi
+					xj.removed = true;
+					Pi.add(new Node(xj.items, rows, count));
+				}
+				else
+					Pi.add(new Node(xj.items, rows, count));
+			}
+
+			int[] itemset = union(prefix, items);
+			if(!Pi.isEmpty())
+				charm(itemset, Pi);
+			addIfClosed(new Itemset(itemset), xi.count);
+		}
+	}
+
+	/*
+	 * adds the itemset unless a closed itemset already found is a superset with the same count
+	 */
+	private void addIfClosed(Itemset itemset, int count)
+	{
+		ArrayList<Itemset> sameCount = closedBySupport.get(count);
+		if(sameCount == null)
+		{
+			sameCount = new ArrayList<Itemset>();
+			closedBySupport.put(count, sameCount);
+		}
+		for(Itemset curr : sameCount)
+		{
+			if(curr.containsAll(itemset))
+				return;
+		}
+		sameCount.add(itemset);
+		closedSets.add(itemset);
+		closedCounts.put(itemset, count);
+	}
+
+	private static long[] and(long[] a, long[] b)
+	{
+		long[] result = new long[a.length];
+		for(int w = 0; w < a.length; w++)
+			result[w] = a[w] & b[w];
+		return result;
+	}
+
+	private static int count(long[] rows)
+	{
+		int count = 0;
+		for(long word : rows)
+			count += Long.bitCount(word);
+		return count;
+	}
+
+	/*
+	 * returns the sorted union of two sorted item arrays
+	 */
+	private static int[] union(int[] a, int[] b)
+	{
+		int[] result = new int[a.length + b.length];
+		int i = 0, j = 0, n = 0;
+		while(i < a.length || j < b.length)
+		{
+			if(j == b.length || (i < a.length && a[i] < b[j]))
+				result[n++] = a[i++];
+			else if(i == a.length || b[j] < a[i])
+				result[n++] = b[j++];
+			else {
+				result[n++] = a[i++];
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
@@ -12,8 +12,22 @@ import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.StringTokenizer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
 import java.lang.Math;
 
 public class DTGenerator  {
@@ -31,17 +45,81 @@ public class DTGenerator  {
 	private Tree decisionTree; // the decision tree
 	private BufferedWriter bw;
 	
+	private int threads = 1; // number of threads used to build the tree
+	private ForkJoinPool pool;
+	private static final int PARALLEL_ROWS = 4096; // nodes with fewer tuples are built on one thread
+	
+	private boolean numeric; // split numeric columns on a threshold instead of on each value
+	
+	private int sampleSize; // nodes with more tuples choose their split from a sample of this many, or 0 to always count all
+	private AtomicInteger sampledNodes = new AtomicInteger(); // the number of nodes split from a sample
+	
+	private boolean stream; // grow a Hoeffding tree while reading the tuples, instead of loading them all
+	private int snapshotRows = 100000; // tuples read between snapshots of the streaming tree
+	private double delta = 1e-7; // the allowed probability of a wrong split in the streaming tree
+	private int maxValues = 1000; // distinct values kept for each column of the stream; later ones are all OTHER_VALUE
+	private static final String OTHER_VALUE = "(other)";
+	
+	private String testFile; // file of tuples to classify with the finished tree, or null
+	private Map<Node, Split> splits; // how each node of the tree split its tuples, when there is a test file
+	private static final int SCORE_BLOCK = 65536; // test tuples read and classified at a time
+	
+	// the tree compiled into arrays, indexed by node number (the root is node 0)
+	private int[] splitAttr; // the attribute each node splits on, or -1 for a leaf
+	private double[] splitThreshold; // for a numeric split, the largest value that goes to the first child
+	private int[] firstChild; // where each node's children start in childNodes
+	private int[] childNodes; // the node number of each child, by value (or side of the threshold), or -1 if none
+	private int[] prediction; // 0 for target1 or 1 for target2, the more common in each node
+	private double[] nodeConfidence; // the share of each node's tuples with the predicted value
+	
 	/* 
 	 * Constructor
 	 */
     public DTGenerator() throws IOException
     {
+    	this(new String[0]);
+    }
+    
+    public DTGenerator(String[] args) throws IOException
+    {
+    	parseOptions(args);
+    	
+    	if(stream)
+    	{
+    		streamTree();
+    		return;
+    	}
+    	
     	bw = new BufferedWriter(new FileWriter("Rules.txt"));
     	
     	readFile();	
     	   	
     	getBinaryAttributes();
 	
+    	writeSummary();
+    	
+    	parseTree(decisionTree.getRoot(), 0); // add content to the Rules file
+    	
+    	bw.newLine();
+    	bw.close();
+    	
+    	if(sampleSize > 0)
+    		System.out.println("Chose the splits of " + sampledNodes.get() + " nodes from samples of " + sampleSize + " tuples");
+    	
+    	if(testFile != null)
+    	{
+    		compileTree();
+    		classifyFile();
+    	}
+    	if(pool != null)
+    		pool.shutdown();
+    }
+    
+    /*
+     * writes the start of the Rules file, up to the rules
+     */
+    private void writeSummary() throws IOException
+    {
     	bw.append("Summary:");
     	bw.newLine();
     	bw.newLine();
@@ -52,11 +130,54 @@ public class DTGenerator  {
     	bw.newLine();
     	bw.append("Rules:");
     	bw.newLine(); bw.newLine();
+    }
+    
+    /*
+     * method to read the command line options
+     *   -threads <n>       build the tree on n threads (default 1); the tree is the same on any number
+     *   -numeric           split each column whose values are all numbers in two, at the threshold
+     *                      with the most information gain, instead of on each of its values
+     *   -sample <n>        choose the split of each node with more than n tuples from a random sample
+     *                      of n of them, counting all the tuples only in the smaller nodes
+     *   -stream            grow a Hoeffding tree (VFDT) while reading the tuples, which are not kept,
+     *                      so the file can be of any size or a named pipe that is still being written
+     *   -snapshot <n>      with -stream, rewrite Rules.txt with the tree so far every n tuples (default 100000)
+     *   -delta <d>         with -stream, the allowed probability of choosing the wrong attribute at a split (default 1e-7)
+     *   -maxvalues <n>     with -stream, keep the first n distinct values of each column (default 1000); any
+     *                      later value counts as the one value (other), which bounds the memory used
+     *   -test <file>       classify the tuples of the given file (with the same header) with the
+     *                      tree, writing the predicted target values and their confidence to Predictions.txt
+     */
+    private void parseOptions(String[] args)
+    {
+    	for(int i = 0; i < args.length; i++)
+    	{
+    		if(args[i].equals("-threads") && i + 1 < args.length)
+    			threads = Integer.parseInt(args[++i]);
+    		else if(args[i].equals("-numeric"))
+    			numeric = true;
+    		else if(args[i].equals("-sample") && i + 1 < args.length)
+    			sampleSize = Integer.parseInt(args[++i]);
+    		else if(args[i].equals("-stream"))
+    			stream = true;
+    		else if(args[i].equals("-snapshot") && i + 1 < args.length)
+    			snapshotRows = Integer.parseInt(args[++i]);
+    		else if(args[i].equals("-delta") && i + 1 < args.length)
+    			delta = Double.parseDouble(args[++i]);
+    		else if(args[i].equals("-maxvalues") && i + 1 < args.length)
+    			maxValues = Integer.parseInt(args[++i]);
+    		else if(args[i].equals("-test") && i + 1 < args.length)
+    			testFile = args[++i];
+    		else {
+    			System.out.println("Unknown option: " + args[i]);
+    			System.exit(0);
+    		}
+    	}
     	
-    	parseTree(decisionTree.getRoot(), 0); // add content to the Rules file
-    	
-    	bw.newLine();
-    	bw.close();
+    	if(stream && (numeric || sampleSize > 0 || testFile != null || threads > 1)){
+    		System.out.println("-stream cannot be used with -numeric, -sample, -test or -threads.");
+    		System.exit(0);
+    	}
     }
 
     /*
@@ -120,23 +241,43 @@ public class DTGenerator  {
     } // end of readFile method
     
     private ArrayList[] I; // an array holding an ArrayList for each column, where each ArrayList contains all of the values in that column
+    private int[][] columns; // columns[i][k] is the position in I[i] of the value of tuple k in column i
+    private List<HashMap<String, Integer>> codes; // for each column, maps its values to their positions in I
+    
+    private boolean[] isNumeric; // the columns split on a threshold
+    private double[][] numbers; // numbers[i][k] is the value of tuple k in numeric column i
+    private int[][] sorted; // for each numeric column, the tuple numbers of each node's part of rows, sorted by value
+    private int[] group; // the child each tuple goes to at a split
+    private int[] scratch; // space to rearrange the sorted lists at a split
     
     private void getBinaryAttributes()
     {
     	I = new ArrayList[numAttributes];
+    	codes = new ArrayList<HashMap<String, Integer>>(numAttributes);
     	
     	for(int i = 0; i < numAttributes; i++)
     	{
     		I[i] = new ArrayList<String>();
+    		codes.add(new HashMap<String, Integer>());
     		
     		for(int k = 0; k < numRows; k++)
     		{
     			String s = itemSet.get(k)[i];
-    			if(!I[i].contains(s))
+    			if(!codes.get(i).containsKey(s)){
+    				codes.get(i).put(s, I[i].size());
     				I[i].add(s);
+    			}
     		}   		
     	}
     	
+    	columns = new int[numAttributes][numRows];
+    	for(int k = 0; k < numRows; k++)
+    	{
+    		String[] row = itemSet.get(k);
+    		for(int i = 0; i < numAttributes; i++)
+    			columns[i][k] = codes.get(i).get(row[i]);
+    	}
+    	
     	ArrayList<String>binaryAttributes = new ArrayList<String>();
     	
     	System.out.println("Choose an attribute (by number): ");
@@ -162,6 +303,10 @@ public class DTGenerator  {
     	
     	target1 = (String)I[target].get(0);
     	target2 = (String)I[target].get(1);
+    	
+    	isNumeric = new boolean[numAttributes];
+    	if(numeric)
+    		findNumericColumns(target);
     	   	
     	
     	ArrayList<Integer> attrs = new ArrayList<Integer>();
@@ -171,7 +316,20 @@ public class DTGenerator  {
     			attrs.add(i);
     	}
     	
-    	makeDecisionTree(itemSet, target, attrs, "root", null);
+    	// the tree is built over one array of tuple numbers, which each split rearranges in place
+    	int[] rows = new int[numRows];
+    	for(int k = 0; k < numRows; k++)
+    		rows[k] = k;
+    	if(testFile != null)
+    		splits = Collections.synchronizedMap(new IdentityHashMap<Node, Split>());
+    	Node root = makeNode("root", null, attrs);
+    	if(threads > 1)
+    	{
+    		pool = new ForkJoinPool(threads);
+    		pool.invoke(new TreeTask(root, rows, 0, numRows, target, attrs));
+    	}
+    	else
+    		makeDecisionTree(root, rows, 0, numRows, target, attrs);
     	
     	
     }
@@ -179,14 +337,157 @@ public class DTGenerator  {
     
     
     /*
-     * Method to make the decision tree using ID3 algorithm
+     * method to grow a Hoeffding tree from the tuples of a file as they are read. Only the first
+     * maxValues distinct values of each column and the counts in the leaves are kept; later values
+     * of a column all count as OTHER_VALUE. The target can be any attribute;
+     * its first two values are the classes, and tuples with any other target value are skipped.
+     * Rules.txt is replaced with the tree so far every snapshotRows tuples and at the end.
      */
-    private void makeDecisionTree(ArrayList<String[]> examples, int target, ArrayList<Integer> attributes, String rule, Node parent)
+    private void streamTree() throws IOException
     {
+    	System.out.print("Enter a file name: ");
+    	Scanner input = new Scanner(System.in);
+    	String filename = input.next();
     	
+    	BufferedReader br = null;
+    	String currentLine = null;
+    	try {
+    		br = new BufferedReader(new FileReader(filename));
+    		currentLine = br.readLine();
+    	} catch(IOException e){
+    		System.out.println("Error reading file.");
+    		System.exit(0);
+    	}
+    	
+    	StringTokenizer st = new StringTokenizer(currentLine);
+    	numAttributes = st.countTokens();
+    	attributeNames = new ArrayList<String>();
+    	while(st.hasMoreTokens())
+    		attributeNames.add(st.nextToken());
+    	
+    	// the values of the columns are not known in advance, so any attribute can be the target
+    	System.out.println("Choose an attribute (by number): ");
+    	for(int i = 0; i < numAttributes; i++)
+    		System.out.println("  " + (i + 1) + ". " + attributeNames.get(i));
+    	System.out.print("Attribute: ");
+    	input = new Scanner(System.in);
+    	int target = input.nextInt() - 1;
+    	targetAttr = attributeNames.get(target);
+    	System.out.println("Target attribute is: " + targetAttr);
+    	System.out.println();
+    	System.out.println();
+    	
+    	List<HashMap<String, Integer>> valueCodes = new ArrayList<HashMap<String, Integer>>(numAttributes);
+    	List<List<String>> valueNames = new ArrayList<List<String>>(numAttributes);
+    	for(int i = 0; i < numAttributes; i++)
+    	{
+    		valueCodes.add(new HashMap<String, Integer>());
+    		valueNames.add(new ArrayList<String>());
+    	}
+    	
+    	HoeffdingTree tree = new HoeffdingTree(numAttributes, target, delta);
+    	int[] row = new int[numAttributes];
+    	int skipped = 0;
+    	while((currentLine = br.readLine()) != null)
+    	{
+    		st = new StringTokenizer(currentLine);
+    		if(!st.hasMoreTokens())
+    			continue;
+    		
+    		String[] items = new String[numAttributes];
+    		for(int i = 0; i < numAttributes && st.hasMoreTokens(); i++)
+    			items[i] = st.nextToken();
+    		if(!valueCodes.get(target).containsKey(items[target]) && valueNames.get(target).size() == 2){
+    			skipped++;
+    			continue;
+    		}
+    		
+    		for(int i = 0; i < numAttributes; i++)
+    		{
+    			Integer code = valueCodes.get(i).get(items[i]);
+    			List<String> names = valueNames.get(i);
+    			if(code == null && (i == target || names.size() < maxValues)){
+    				code = names.size();
+    				valueCodes.get(i).put(items[i], code);
+    				names.add(items[i]);
+    			}
+    			else if(code == null){
+    				code = maxValues;
+    				if(names.size() == maxValues)
+    					names.add(OTHER_VALUE);
+    			}
+    			row[i] = code;
+    		}
+    		tree.add(row);
+    		numRows++;
+    		
+    		if(numRows % snapshotRows == 0)
+    			writeSnapshot(tree, target, valueNames);
+    	}
+    	br.close();
+    	writeSnapshot(tree, target, valueNames);
+    	
+    	System.out.println("Grew a tree of " + tree.getNumNodes() + " nodes (" + tree.getNumLeaves() + " leaves) from " + numRows + " tuples");
+    	if(skipped > 0)
+    		System.out.println("Skipped " + skipped + " tuples with a third value of " + targetAttr);
+    }
+    
+    /*
+     * replaces Rules.txt with the streaming tree so far. The snapshot is written to another file
+     * first and then moved over Rules.txt, so a reader never sees a half-written file.
+     */
+    private void writeSnapshot(HoeffdingTree tree, int target, List<List<String>> valueNames) throws IOException
+    {
+    	String[] targetValues = new String[2];
+    	for(int c = 0; c < valueNames.get(target).size(); c++)
+    		targetValues[c] = valueNames.get(target).get(c);
+    	
+    	bw = new BufferedWriter(new FileWriter("Rules.txt.tmp"));
+    	writeSummary();
+    	tree.write(bw, attributeNames, valueNames, targetAttr, targetValues);
+    	bw.newLine();
+    	bw.close();
+    	Files.move(Paths.get("Rules.txt.tmp"), Paths.get("Rules.txt"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /*
+     * method to find the columns other than the target whose values are all numbers, and to sort
+     * each of them once; the nodes find their thresholds from their parts of these sorted lists
+     */
+    private void findNumericColumns(int target)
+    {
+    	numbers = new double[numAttributes][];
+    	sorted = new int[numAttributes][];
+    	for(int i = 0; i < numAttributes; i++)
+    	{
+    		if(i == target)
+    			continue;
+    		
+    		double[] values = new double[numRows];
+    		try {
+    			for(int k = 0; k < numRows; k++)
+    				values[k] = Double.parseDouble(itemSet.get(k)[i]);
+    		} catch(NumberFormatException | NullPointerException e) {
+    			continue; // not a numeric column
+    		}
+    		
+    		isNumeric[i] = true;
+    		numbers[i] = values;
+    		sorted[i] = IntStream.range(0, numRows).boxed().sorted((a, b) -> Double.compare(values[a], values[b])).mapToInt(Integer::intValue).toArray();
+    		System.out.println("Numeric attribute: " + attributeNames.get(i));
+    	}
+    	group = new int[numRows];
+    	scratch = new int[numRows];
+    }
+    
+    /*
+     * Method to make a node of the decision tree and add it to its parent
+     */
+    private Node makeNode(String rule, Node parent, ArrayList<Integer> attributes)
+    {
     	Node rootNode = new Node();   	
 		
-    	// in case this is the first the the method is being called
+    	// in case this is the root of the tree
 		if(parent == null)
 		{
 			rootNode.addAttributes(attributes);
@@ -200,36 +501,52 @@ public class DTGenerator  {
 		}			
 			
     	rootNode.description = rule;
-
+    	return rootNode;
+    }
+    
+    /*
+     * Method to make the decision tree below rootNode using ID3 algorithm.
+     * The examples are the tuples numbered in rows[from, to); a target value of 0 is target1 and 1 is target2.
+     * The children of a node are all made before any of their subtrees, so that with more than one
+     * thread the subtrees can be built at the same time and the tree still comes out in the same order.
+     */
+    private void makeDecisionTree(Node rootNode, int[] rows, int from, int to, int target, ArrayList<Integer> attributes)
+    {
     	int target1Count = 0;
     	int target2Count = 0;
     	
-    	//
-    	for(String[] s : examples)
+    	int[] targetColumn = columns[target];
+    	for(int k = from; k < to; k++)
     	{
-    		
-    		
-    		
-    		if(s[target].equals(target1))
+    		if(targetColumn[rows[k]] == 0)
     			target1Count++;
-    		else if(s[target].equals(target2))
-    			target2Count++;
     		else
-    			System.out.println("error!!!");
+    			target2Count++;
     	}
     	
-    	if(target1Count == examples.size())
+    	Split split = new Split();
+    	split.prediction = target1Count >= target2Count ? 0 : 1;
+    	split.confidence = (double)Math.max(target1Count, target2Count) / (double)(to - from);
+    	if(splits != null)
+    		splits.put(rootNode, split);
+    	
+    	// get the attribute that results in the most information gain, or -1 if there is none to split on
+    	int rootAttr = -1;
+    	if(target1Count != to - from && target2Count != to - from && !rootNode.getAttributes().isEmpty())
+    		rootAttr = getRootAttr(rows, from, to, target, attributes);
+    	
+    	if(target1Count == to - from)
     	{
     		rootNode.label = target1;
     		rootNode.setConfidence(1.0);
     	}
-    	else if(target2Count == examples.size())
+    	else if(target2Count == to - from)
     	{
     		rootNode.label = target2;
     		rootNode.setConfidence(1.0);
     	}
     	// no more attributes left, so create a leaf node
-    	else if(rootNode.getAttributes().isEmpty()) //attributes.isEmpty())
+    	else if(rootAttr < 0) //attributes.isEmpty())
     	{
     		
     		
@@ -250,37 +567,57 @@ public class DTGenerator  {
     	// Otherwise:
     	else
     	{
-    		// get the attribute that results in the most information gain
-    		int rootAttr = getRootAttr(examples, target, attributes);
     		rootNode.attr = attributeNames.get(rootAttr);
-
-    		boolean allTheSame = true;
-    		String testStr = examples.get(0)[rootAttr];
-    		for(String[]s : examples){
-    			if(!s[rootAttr].equals(testStr))
-    				allTheSame = false;
-    		}   		
     		
     		ArrayList<String> values = I[rootAttr];
+    		String[] rules; // the description of each child
+    		int[] childOf; // for each tuple, the child it goes to
     		
     		//System.out.println("Node Attributes: " + rootNode.getAttributes().toString() + "  Name: " + rootNode.attr);
     		
-    		rootNode.removeAttribute(attributes.indexOf(rootAttr));
+    		if(isNumeric[rootAttr])
+    		{
+    			// two children, split at the best threshold; a numeric attribute can be split on again below
+    			int last = findThreshold(rootAttr, from, to, target, target1Count, null, samplePositions(from, to));
+    			int thresholdRow = sorted[rootAttr][last];
+    			double threshold = numbers[rootAttr][thresholdRow];
+    			for(int k = from; k < to; k++)
+    				group[rows[k]] = numbers[rootAttr][rows[k]] <= threshold ? 0 : 1;
+    			childOf = group;
+    			split.threshold = threshold;
+    			
+    			String s = itemSet.get(thresholdRow)[rootAttr];
+    			rules = new String[] { rootNode.attr + " <= " + s, rootNode.attr + " > " + s };
+    		}
+    		else
+    		{
+    			rootNode.removeAttribute(attributes.indexOf(rootAttr));
+    			childOf = columns[rootAttr];
+    			
+    			rules = new String[values.size()];
+    			for(int v = 0; v < values.size(); v++)
+    				rules[v] = rootNode.attr + " is " + values.get(v);
+    		}
+    		
+    		// group the tuples by the child they go to; child v's tuples end up in rows[starts[v], starts[v+1])
+    		int[] starts = partition(rows, from, to, childOf, rules.length);
+    		
+    		// keep the sorted lists lined up with rows, each child's part still in order
+    		for(int i = 0; i < numAttributes; i++){
+    			if(isNumeric[i])
+    				stablePartition(sorted[i], from, to, childOf, starts);
+    		}
     		
+    		ArrayList<TreeTask> subtrees = new ArrayList<TreeTask>();
+    		split.attr = rootAttr;
+    		split.children = new Node[rules.length];
     		
-    		// for each possible value of the root attribute:
-    		for(String s : values)
+    		// for each child of the root attribute:
+    		for(int v = 0; v < rules.length; v++)
     		{
-    			ArrayList<String[]>list = new ArrayList<String[]>();
-    			for(int i = 0; i < examples.size(); i++)
-    			{
-    				String[]arr = examples.get(i);
-    				if(arr[rootAttr].equals(s))
-    					list.add(arr);
-    			}
     			
-    			// if list is empty, then we have a leaf node
-    			if(list.isEmpty())
+    			// if there are no tuples with this value, then we have a leaf node
+    			if(starts[v] == starts[v + 1])
     			{
     				
     				Node child = new Node();
@@ -295,14 +632,280 @@ public class DTGenerator  {
     			else 
     			{
     				
-    				makeDecisionTree(list, target, rootNode.getAttributes(), rootNode.attr + " is " + s, rootNode);
+    				Node child = makeNode(rules[v], rootNode, rootNode.getAttributes());
+    				split.children[v] = child;
+    				subtrees.add(new TreeTask(child, rows, starts[v], starts[v + 1], target, rootNode.getAttributes()));
     			}
     			
     		}
+    		
+    		// the subtrees work on separate parts of rows, so they can be built in parallel
+    		if(pool != null && to - from >= PARALLEL_ROWS)
+    			TreeTask.invokeAll(subtrees);
+    		else {
+    			for(TreeTask t : subtrees)
+    				makeDecisionTree(t.node, rows, t.from, t.to, target, t.attributes);
+    		}
     	}
     	
     }
     
+    /*
+     * How a node of the tree split its tuples, kept to compile the tree
+     */
+    private static class Split
+    {
+    	int attr = -1; // the attribute split on, or -1 for a leaf
+    	double threshold; // for a numeric attribute, the largest value that goes to the first child
+    	Node[] children; // the child for each value (or side of the threshold), or null if no tuples had the value
+    	int prediction; // 0 if target1 is at least as common as target2 in the node, otherwise 1
+    	double confidence; // the share of the node's tuples with the predicted value
+    }
+    
+    /*
+     * Fork/join task that builds the subtree below a node
+     */
+    private class TreeTask extends RecursiveAction
+    {
+    	private static final long serialVersionUID = 1L;
+    	
+    	private Node node;
+    	private int[] rows;
+    	private int from, to, target;
+    	private ArrayList<Integer> attributes;
+    	
+    	TreeTask(Node node, int[] rows, int from, int to, int target, ArrayList<Integer> attributes)
+    	{
+    		this.node = node;
+    		this.rows = rows;
+    		this.from = from;
+    		this.to = to;
+    		this.target = target;
+    		this.attributes = attributes;
+    	}
+    	
+    	protected void compute()
+    	{
+    		makeDecisionTree(node, rows, from, to, target, attributes);
+    	}
+    }
+    
+    /*
+     * Rearranges rows[from, to) in place so that the tuples are grouped by their value in column,
+     * in order of value, by swapping each tuple straight into its group.
+     * Returns the start of each value's group, followed by to.
+     */
+    private static int[] partition(int[] rows, int from, int to, int[] column, int numValues)
+    {
+    	int[] starts = new int[numValues + 1];
+    	for(int k = from; k < to; k++)
+    		starts[column[rows[k]] + 1]++;
+    	starts[0] = from;
+    	for(int v = 0; v < numValues; v++)
+    		starts[v + 1] += starts[v];
+    	
+    	// next[v] is the first place in value v's group not yet holding a tuple with value v
+    	int[] next = new int[numValues];
+    	System.arraycopy(starts, 0, next, 0, numValues);
+    	for(int v = 0; v < numValues; v++)
+    	{
+    		while(next[v] < starts[v + 1])
+    		{
+    			int row = rows[next[v]];
+    			int value = column[row];
+    			if(value == v)
+    				next[v]++;
+    			else {
+    				// swap the tuple into its own group
+    				rows[next[v]] = rows[next[value]];
+    				rows[next[value]++] = row;
+    			}
+    		}
+    	}
+    	return starts;
+    }
+    
+    /*
+     * Rearranges list[from, to), which holds the same tuples as rows[from, to), so that each child's
+     * tuples are in its part of the range given by starts, keeping their order within each child
+     */
+    private void stablePartition(int[] list, int from, int to, int[] childOf, int[] starts)
+    {
+    	int[] next = new int[starts.length - 1];
+    	System.arraycopy(starts, 0, next, 0, next.length);
+    	for(int k = from; k < to; k++)
+    		scratch[next[childOf[list[k]]]++] = list[k];
+    	System.arraycopy(scratch, from, list, from, to - from);
+    }
+    
+    /*
+     * method to compile the finished tree into flat arrays, numbering the nodes breadth first,
+     * so that classifying a tuple only reads arrays
+     */
+    private void compileTree()
+    {
+    	ArrayList<Node> nodes = new ArrayList<Node>();
+    	IdentityHashMap<Node, Integer> numbers = new IdentityHashMap<Node, Integer>();
+    	nodes.add(decisionTree.getRoot());
+    	numbers.put(decisionTree.getRoot(), 0);
+    	int numChildren = 0;
+    	for(int n = 0; n < nodes.size(); n++)
+    	{
+    		Split split = splits.get(nodes.get(n));
+    		if(split.attr < 0)
+    			continue;
+    		for(Node child : split.children){
+    			if(child != null){
+    				numbers.put(child, nodes.size());
+    				nodes.add(child);
+    			}
+    		}
+    		numChildren += split.children.length;
+    	}
+    	
+    	splitAttr = new int[nodes.size()];
+    	splitThreshold = new double[nodes.size()];
+    	firstChild = new int[nodes.size()];
+    	childNodes = new int[numChildren];
+    	prediction = new int[nodes.size()];
+    	nodeConfidence = new double[nodes.size()];
+    	int next = 0;
+    	for(int n = 0; n < nodes.size(); n++)
+    	{
+    		Split split = splits.get(nodes.get(n));
+    		splitAttr[n] = split.attr;
+    		splitThreshold[n] = split.threshold;
+    		prediction[n] = split.prediction;
+    		nodeConfidence[n] = split.confidence;
+    		firstChild[n] = next;
+    		if(split.attr >= 0){
+    			for(Node child : split.children)
+    				childNodes[next++] = child == null ? -1 : numbers.get(child);
+    		}
+    	}
+    	splits = null;
+    }
+    
+    /*
+     * method to classify the tuples of the test file with the compiled tree, a block at a time.
+     * Each block is encoded into columns first, then classified by a loop over the tree arrays.
+     * Each prediction is written to Predictions.txt with its confidence, the share of the training
+     * tuples in its node with the predicted value, and the accuracy is shown if the test file has
+     * the target attribute.
+     */
+    private void classifyFile() throws IOException
+    {
+    	BufferedReader br = new BufferedReader(new FileReader(testFile));
+    	ArrayList<String> header = new ArrayList<String>();
+    	StringTokenizer st = new StringTokenizer(br.readLine());
+    	while(st.hasMoreTokens())
+    		header.add(st.nextToken());
+    	
+    	// where each attribute of the training data is in the test file, or -1 if it is missing
+    	int[] position = new int[numAttributes];
+    	for(int i = 0; i < numAttributes; i++)
+    		position[i] = header.indexOf(attributeNames.get(i));
+    	int target = attributeNames.indexOf(targetAttr);
+    	
+    	int[][] block = new int[numAttributes][SCORE_BLOCK]; // values as positions in I, or -1 if never seen
+    	double[][] blockNumbers = new double[numAttributes][];
+    	for(int i = 0; i < numAttributes; i++){
+    		if(isNumeric[i])
+    			blockNumbers[i] = new double[SCORE_BLOCK];
+    	}
+    	int[] reached = new int[SCORE_BLOCK]; // the node each tuple's prediction comes from
+    	
+    	BufferedWriter out = new BufferedWriter(new FileWriter("Predictions.txt"));
+    	int scored = 0, correct = 0, labelled = 0;
+    	long classifyTime = 0;
+    	String currentLine = "";
+    	while(currentLine != null)
+    	{
+    		// read and encode a block of tuples
+    		int size = 0;
+    		while(size < SCORE_BLOCK && (currentLine = br.readLine()) != null)
+    		{
+    			String[] tokens = currentLine.trim().split("\\s+");
+    			if(tokens[0].isEmpty())
+    				continue;
+    			for(int i = 0; i < numAttributes; i++)
+    			{
+    				String value = position[i] >= 0 && position[i] < tokens.length ? tokens[position[i]] : null;
+    				Integer code = value == null ? null : codes.get(i).get(value);
+    				block[i][size] = code == null ? -1 : code;
+    				if(isNumeric[i])
+    					blockNumbers[i][size] = value == null ? Double.NaN : parseNumber(value);
+    			}
+    			size++;
+    		}
+    		
+    		long start = System.nanoTime();
+    		classify(block, blockNumbers, size, reached);
+    		classifyTime += System.nanoTime() - start;
+    		
+    		for(int k = 0; k < size; k++)
+    		{
+    			int predicted = prediction[reached[k]];
+    			out.append((predicted == 0 ? target1 : target2) + " (confidence=" + nodeConfidence[reached[k]] + ")");
+    			out.newLine();
+    			if(block[target][k] >= 0){
+    				labelled++;
+    				if(block[target][k] == predicted)
+    					correct++;
+    			}
+    		}
+    		scored += size;
+    	}
+    	br.close();
+    	out.close();
+    	
+    	System.out.println("Classified " + scored + " tuples in " + (classifyTime / 1000000) + " ms ("
+    			+ (long)(scored / Math.max(classifyTime / 1e9, 1e-9)) + " tuples per second), predictions written to Predictions.txt");
+    	if(labelled > 0)
+    		System.out.println("Accuracy on the " + labelled + " tuples with a known " + targetAttr + ": " + (double)correct / (double)labelled);
+    }
+    
+    /*
+     * Classifies the first size tuples of an encoded block, storing in reached the node whose
+     * prediction each tuple gets: its leaf, or the last node it reached if it has a value the
+     * tree has no child for.
+     */
+    private void classify(int[][] block, double[][] blockNumbers, int size, int[] reached)
+    {
+    	for(int k = 0; k < size; k++)
+    	{
+    		int node = 0;
+    		while(splitAttr[node] >= 0)
+    		{
+    			int attr = splitAttr[node];
+    			int child;
+    			if(blockNumbers[attr] != null)
+    			{
+    				double value = blockNumbers[attr][k];
+    				child = Double.isNaN(value) ? -1 : childNodes[firstChild[node] + (value <= splitThreshold[node] ? 0 : 1)];
+    			}
+    			else
+    			{
+    				int value = block[attr][k];
+    				child = value < 0 ? -1 : childNodes[firstChild[node] + value];
+    			}
+    			if(child < 0)
+    				break;
+    			node = child;
+    		}
+    		reached[k] = node;
+    	}
+    }
+    
+    private static double parseNumber(String value)
+    {
+    	try {
+    		return Double.parseDouble(value);
+    	} catch(NumberFormatException e) {
+    		return Double.NaN;
+    	}
+    }
+    
     /*
      * Depth first search algorithm to parse the tree
      */
@@ -335,52 +938,185 @@ public class DTGenerator  {
     	
     }
    
+    /*
+     * Returns the sorted positions in [from, to) of a random sample of sampleSize of the node's tuples
+     * (drawn with replacement), or null if the node is small enough to count all of them.
+     * The sample depends only on the node's part of rows, so the tree is the same on any number of threads.
+     */
+    private int[] samplePositions(int from, int to)
+    {
+    	if(sampleSize <= 0 || to - from <= sampleSize)
+    		return null;
+    	Random random = new Random(((long)from << 32) | to);
+    	int[] sample = new int[sampleSize];
+    	for(int i = 0; i < sampleSize; i++)
+    		sample[i] = from + random.nextInt(to - from);
+    	Arrays.sort(sample);
+    	return sample;
+    }
+    
     /*
      * method to decide which attribute results in the most information gain.
+     * The tuples in rows[from, to) are counted into a table of the number of tuples of each class
+     * for every value of every candidate attribute, one column at a time, and each gain is worked out from it.
+     * A node with more than sampleSize tuples counts only a sample of them.
      */
-    private int getRootAttr(ArrayList<String[]> examples, int target, ArrayList<Integer> attributes)
+    private int getRootAttr(int[] rows, int from, int to, int target, ArrayList<Integer> attributes)
     {
-    	double entropy = entropy(examples, target);
-    	int rootAttr = attributes.get(0);
+    	int[] attrs = new int[attributes.size()];
+    	int[] offsets = new int[attributes.size()]; // where each attribute's counts start in the table
+    	int size = 0;
+    	for(int a = 0; a < attrs.length; a++)
+    	{
+    		attrs[a] = attributes.get(a);
+    		offsets[a] = size;
+    		if(!isNumeric[attrs[a]])
+    			size += 2 * I[attrs[a]].size();
+    	}
+    	double[] numericGain = new double[attrs.length]; // information gain at the best threshold, or NaN if there is none
+    	
+    	// counts[offsets[a] + 2 * value + class] for each attribute a
+    	int[] counts = new int[size];
+    	int[] targetColumn = columns[target];
+    	int[] sample = samplePositions(from, to);
+    	int total = sample == null ? to - from : sample.length;
+    	int t1 = 0;
+    	for(int k = 0; k < total; k++){
+    		if(targetColumn[rows[sample == null ? from + k : sample[k]]] == 0)
+    			t1++;
+    	}
+    	if(sample != null)
+    		sampledNodes.incrementAndGet();
+    	
+    	int target1Count = t1;
+    	
+    	// each attribute fills its own part of the table, so large nodes count the attributes in parallel
+    	IntStream columnsToCount = IntStream.range(0, attrs.length);
+    	if(pool != null && to - from >= PARALLEL_ROWS)
+    		columnsToCount = columnsToCount.parallel();
+    	columnsToCount.forEach(a -> {
+    		if(isNumeric[attrs[a]])
+    		{
+    			double[] gain = new double[1];
+    			numericGain[a] = findThreshold(attrs[a], from, to, target, target1Count, gain, sample) >= 0 ? gain[0] : Double.NaN;
+    			return;
+    		}
+    		
+    		int[] column = columns[attrs[a]];
+    		int offset = offsets[a];
+    		if(sample == null)
+    		{
+	    		for(int k = from; k < to; k++)
+	    		{
+	    			int row = rows[k];
+	    			counts[offset + 2 * column[row] + targetColumn[row]]++;
+	    		}
+    		}
+    		else
+    		{
+    			for(int k : sample)
+    			{
+    				int row = rows[k];
+    				counts[offset + 2 * column[row] + targetColumn[row]]++;
+    			}
+    		}
+    	});
+    	
+    	double entropy = entropy(t1, total - t1);
+    	
+    	// if no attribute gains anything, split on the first that is not numeric
+    	int rootAttr = -1;
+    	for(int a = 0; a < attrs.length && rootAttr < 0; a++){
+    		if(!isNumeric[attrs[a]])
+    			rootAttr = attrs[a];
+    	}
     	double informationGain;
     	double maxGain = 0.0;
-    	for(int attr: attributes)
+    	for(int a = 0; a < attrs.length; a++)
     	{
-    		double expectedEntropy = expectedEntropy(attr, examples, target);
-    		  		
-    		informationGain = entropy - expectedEntropy;
+    		if(isNumeric[attrs[a]] && Double.isNaN(numericGain[a]))
+    			continue;
+    		
+    		// a numeric attribute's gain is worked out from its own sample, when there is one
+    		informationGain = isNumeric[attrs[a]] ? numericGain[a] : entropy - expectedEntropy(counts, offsets[a], I[attrs[a]].size(), total);
     		
     		if(informationGain > maxGain) {
     			maxGain = informationGain;
-    			rootAttr = attr;
+    			rootAttr = attrs[a];
     		}
     	}
     	//System.out.println("Root Attribute is : " + rootAttr);
     	return rootAttr;
     }
-    private double expectedEntropy(int attr, ArrayList<String[]> examples, int target)
+    
+    /*
+     * Finds the best threshold to split numeric attribute attr at, with one sweep through the node's
+     * part of its sorted list. Returns the position in the sorted list of the last tuple at or below
+     * the threshold, or -1 if all the tuples have the same value, and stores the information gain
+     * of the split in gain[0] if gain is not null. t1 is the number of tuples of target1.
+     * If sample is not null, only the tuples at those sorted positions of the list are swept, and t1
+     * is counted from them, so the gain is measured against the entropy of that same sample.
+     */
+    private int findThreshold(int attr, int from, int to, int target, int t1, double[] gain, int[] sample)
+    {
+    	int[] list = sorted[attr];
+    	double[] values = numbers[attr];
+    	int[] targetColumn = columns[target];
+    	int total = sample == null ? to - from : sample.length;
+    	if(sample != null)
+    	{
+    		t1 = 0;
+    		for(int k : sample){
+    			if(targetColumn[list[k]] == 0)
+    				t1++;
+    		}
+    	}
+    	int t2 = total - t1;
+    	
+    	int best = -1;
+    	double bestEntropy = 0.0;
+    	int left1 = 0, left2 = 0;
+    	for(int i = 0; i < total - 1; i++)
+    	{
+    		int k = sample == null ? from + i : sample[i];
+    		int next = sample == null ? k + 1 : sample[i + 1];
+    		if(targetColumn[list[k]] == 0)
+    			left1++;
+    		else
+    			left2++;
+    		
+    		// only split between different values
+    		if(values[list[k]] == values[list[next]])
+    			continue;
+    		
+    		int left = left1 + left2;
+    		double exp_entropy = (double)left / (double)total * entropy(left1, left2)
+    				+ (double)(total - left) / (double)total * entropy(t1 - left1, t2 - left2);
+    		if(best < 0 || exp_entropy < bestEntropy)
+    		{
+    			best = k;
+    			bestEntropy = exp_entropy;
+    		}
+    	}
+    	if(gain != null)
+    		gain[0] = entropy(t1, t2) - bestEntropy;
+    	return best;
+    }
+    
+    /*
+     * Calculates the expected entropy after splitting on an attribute with the given number of values,
+     * from its class counts starting at offset in counts.
+     */
+    private double expectedEntropy(int[] counts, int offset, int numValues, int total)
     {
     	double exp_entropy = 0.0;
     	
-    	ArrayList<String> list = I[attr];  	
-    	ArrayList<String[]> examples2 = new ArrayList<String[]>();
-		for(String s : list)
+		for(int v = 0; v < numValues; v++)
 		{
-			
-			examples2.clear();
-			for(String[]arr : examples)
-			{
-				if(arr[attr].equals(s)){
-					examples2.add(arr);
-					
-				}
-				
-			}
-			double p = (double)examples2.size() / (double)examples.size();
-			exp_entropy += p * entropy(examples2, target);
-			
-			//System.out.println("Entropy for " + s+ ": "+ entropy(examples2, target) 
-			//		           + " * " + examples2.size() + " / " + examples.size());
+			int t1 = counts[offset + 2 * v];
+			int t2 = counts[offset + 2 * v + 1];
+			double p = (double)(t1 + t2) / (double)total;
+			exp_entropy += p * entropy(t1, t2);
 		}
 		//System.out.println("Exp entropy: " + exp_entropy);
 		return exp_entropy;
@@ -388,30 +1124,19 @@ public class DTGenerator  {
     }     
     
     /*
-     * Calculates entropy, to be used in the information gain calculation.
+     * Calculates entropy, to be used in the information gain calculation,
+     * from the number of examples of each target value.
      */
-    private double entropy(ArrayList<String[]> examples, int target)
+    private double entropy(int t1, int t2)
     {
     	double entropy;
     	
-    	int t1 = 0, t2 = 0;
-    	
-    	for(String[] s : examples)
-    	{
-    		if(s[target].equals(target1))
-    			t1++;
-    		else if(s[target].equals(target2))
-    			t2++;
-    		else
-    			System.out.println("error!!!");
-    	}
-    	
-    	if(t1 == examples.size() || t2 == examples.size())
+    	if(t1 == 0 || t2 == 0)
     		entropy = 0.0;
     	
     	else {
-	    	double p0 = (double)t1 / (double)examples.size();
-	    	double p1 = (double)t2 / (double)examples.size();
+	    	double p0 = (double)t1 / (double)(t1 + t2);
+	    	double p1 = (double)t2 / (double)(t1 + t2);
 	    	
 	    	entropy = -(p0 * (Math.log(p0)/Math.log(2)) + p1 * (Math.log(p1)/Math.log(2)) );
 	    	//System.out.println("Entropy: " + entropy + ", p0: " + p0 + ", p1: " + p1);
@@ -422,12 +1147,12 @@ public class DTGenerator  {
     }
     
     
-
-
-
+    
+    
+    
     public static void main(String[] args) throws IOException
     {
-		new DTGenerator();
+		new DTGenerator(args);
     }
 	
 	
@@ -0,0 +1,229 @@
+/*
+ * Finds the frequent itemsets depth first with the Eclat algorithm, or its dEclat variant.
+ *
+ * Each item keeps the sorted list of the rows that contain it (its tid-list), and the support
+ * of an itemset is found by intersecting the lists of its prefix class. dEclat instead keeps,
+ * below the first level, the rows lost by adding an item to the prefix (its diffset), which
+ * is much smaller than the tid-list on dense data.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class EclatMiner {
+
+	private int minCount;
+	private int maxLength; // the largest itemset to find, or 0 for no limit
+	private boolean diffsets; // use diffsets below the first level (dEclat)
+	private ArrayList<Node> items; // the frequent items, with their tid-lists
+
+	/*
+	 * A member of a prefix class: the prefix extended with item, and its tid-list or diffset
+	 */
+	private static class Node {
+		int item;
+		int[] rows;
+		int count;
+
+		Node(int item, int[] rows, int count) {
+			this.item = item;
+			this.rows = rows;
+			this.count = count;
+		}
+	}
+
+	/*
+	 * The itemsets found under one top-level prefix class
+	 */
+	private static class Result {
+		ArrayList<Itemset> itemsets = new ArrayList<Itemset>();
+		ArrayList<Integer> counts = new ArrayList<Integer>();
+	}
+
+	/*
+	 * Builds the tid-list of each frequent item from the rows of the database.
+	 */
+	public EclatMiner(TransactionStore rows, int numItems, int minCount, int maxLength, boolean diffsets)
+	{
+		this.minCount = minCount;
+		this.maxLength = maxLength;
+		this.diffsets = diffsets;
+
+		int[] row = new int[rows.getMaxRowLength()];
+		int[] itemCounts = new int[numItems];
+		TransactionStore.Cursor cursor = rows.cursor(0);
+		for(int j = 0; j < rows.size(); j++){
+			int length = cursor.next(row);
+			for(int k = 0; k < length; k++)
+				itemCounts[row[k]]++;
+		}
+		int[][] tidLists = new int[numItems][];
+		for(int item = 0; item < numItems; item++)
+			tidLists[item] = new int[itemCounts[item]];
+		int[] filled = new int[numItems];
+		cursor = rows.cursor(0);
+		for(int j = 0; j < rows.size(); j++){
+			int length = cursor.next(row);
+			for(int k = 0; k < length; k++)
+				tidLists[row[k]][filled[row[k]]++] = j;
+		}
+
+		// least frequent items first, which keeps the prefix classes small
+		items = new ArrayList<Node>();
+		for(int item = 0; item < numItems; item++){
+			if(itemCounts[item] >= minCount && itemCounts[item] > 0)
+				items.add(new Node(item, tidLists[item], itemCounts[item]));
+		}
+		Collections.sort(items, (a, b) -> a.count != b.count ? a.count - b.count : a.item - b.item);
+	}
+
+	/*
+	 * Finds the frequent itemsets, adding each to itemsets and its count to supports.
+	 * If a pool is given, each top-level prefix class is mined as a separate task;
+	 * the results are added in the same order either way.
+	 */
+	public void mine(ArrayList<Itemset> itemsets, SupportTable supports, ForkJoinPool pool) throws ExecutionException, InterruptedException
+	{
+		List<Result> results;
+		if(pool == null)
+		{
+			results = new ArrayList<Result>();
+			for(int i = 0; i < items.size(); i++)
+				results.add(mineClass(i));
+		}
+		else
+			results = pool.submit(() -> IntStream.range(0, items.size()).parallel().mapToObj(this::mineClass).collect(Collectors.toList())).get();
+
+		for(Result result : results)
+		{
+			for(int k = 0; k < result.itemsets.size(); k++)
+			{
+				itemsets.add(result.itemsets.get(k));
+				supports.put(result.itemsets.get(k), result.counts.get(k));
+			}
+		}
+	}
+
+	/*
+	 * mines the class of itemsets whose first item is the i-th frequent item
+	 */
+	private Result mineClass(int i)
+	{
+		Result result = new Result();
+		Node xi = items.get(i);
+		int[] prefix = { xi.item };
+		result.itemsets.add(new Itemset(prefix.clone()));
+		result.counts.add(xi.count);
+		if(maxLength == 1)
+			return result;
+
+		ArrayList<Node> clazz = new ArrayList<Node>();
+		for(int j = i + 1; j < items.size(); j++)
+		{
+			Node xj = items.get(j);
+			Node node;
+			if(diffsets)
+			{
+				int[] diff = minus(xi.rows, xj.rows);
+				node = new Node(xj.item, diff, xi.count - diff.length);
+			}
+			else
+			{
+				int[] tids = intersect(xi.rows, xj.rows);
+				node = new Node(xj.item, tids, tids.length);
+			}
+			if(node.count >= minCount)
+				clazz.add(node);
+		}
+		extend(prefix, clazz, result);
+		return result;
+	}
+
+	/*
+	 * records each member of the prefix class and recursively mines the class it starts
+	 */
+	private void extend(int[] prefix, ArrayList<Node> clazz, Result result)
+	{
+		for(int i = 0; i < clazz.size(); i++)
+		{
+			Node xi = clazz.get(i);
+			int[] itemset = Arrays.copyOf(prefix, prefix.length + 1);
+			itemset[prefix.length] = xi.item;
+			result.itemsets.add(new Itemset(itemset.clone()));
+			result.counts.add(xi.count);
+			if(maxLength > 0 && itemset.length >= maxLength)
+				continue;
+
+			ArrayList<Node> newClass = new ArrayList<Node>();
+			for(int j = i + 1; j < clazz.size(); j++)
+			{
+				Node xj = clazz.get(j);
+				Node node;
+				if(diffsets)
+				{
+					// d(PXY) = d(PY) - d(PX)
+					int[] diff = minus(xj.rows, xi.rows);
+					node = new Node(xj.item, diff, xi.count - diff.length);
+				}
+				else
+				{
+					int[] tids = intersect(xi.rows, xj.rows);
+					node = new Node(xj.item, tids, tids.length);
+				}
+				if(node.count >= minCount)
+					newClass.add(node);
+			}
+			if(!newClass.isEmpty())
+				extend(itemset, newClass, result);
+		}
+	}
+
+	/*
+	 * returns the rows in both sorted lists
+	 */
+	private static int[] intersect(int[] a, int[] b)
+	{
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, n = 0;
+		while(i < a.length && j < b.length)
+		{
+			if(a[i] < b[j])
+				i++;
+			else if(a[i] > b[j])
+				j++;
+			else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/*
+	 * returns the rows of sorted list a that are not in sorted list b
+	 */
+	private static int[] minus(int[] a, int[] b)
+	{
+		int[] result = new int[a.length];
+		int i = 0, j = 0, n = 0;
+		while(i < a.length)
+		{
+			if(j == b.length || a[i] < b[j])
+				result[n++] = a[i++];
+			else if(a[i] > b[j])
+				j++;
+			else {
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * An FP-tree, the compressed prefix tree of transactions used by the FP-Growth algorithm
+ * to find frequent itemsets without generating candidate itemsets.
+ *
+ * Items on each path are ordered by descending frequency so that common prefixes are shared,
+ * and every node of an item is linked into a list starting at that item's header entry.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class FPTree {
+
+	private FPNode root;
+	private int minCount; // the minimum number of rows a frequent itemset must occur in
+	private int maxLength; // the largest itemset to find, or 0 for no limit
+
+	private int[] order; // the frequent items of this tree, from most to least frequent
+	private int[] rank; // position of each item in order, or -1 if the item is not frequent
+	private FPNode[] heads; // first node of each item's node-link list, indexed by rank
+	private int[] counts; // total count of each item in the tree, indexed by rank
+
+	/*
+	 * A node of the tree, representing one item on a path shared by count transactions
+	 */
+	private static class FPNode {
+		int item;
+		int count;
+		FPNode parent;
+		FPNode next; // next node holding the same item
+		HashMap<Integer, FPNode> children = new HashMap<Integer, FPNode>();
+
+		FPNode(int item, FPNode parent) {
+			this.item = item;
+			this.parent = parent;
+		}
+	}
+
+	/*
+	 * Builds the tree from the rows of the database in two passes read straight from the store:
+	 * the first counts each item, the second inserts the frequent items of each row in descending
+	 * frequency order.
+	 */
+	public FPTree(TransactionStore rows, int numItems, int minCount, int maxLength)
+	{
+		this.minCount = minCount;
+		this.maxLength = maxLength;
+		root = new FPNode(-1, null);
+
+		// first pass: count the items
+		int[] row = new int[rows.getMaxRowLength()];
+		int[] itemCounts = new int[numItems];
+		TransactionStore.Cursor cursor = rows.cursor(0);
+		for(int j = 0; j < rows.size(); j++)
+		{
+			int length = cursor.next(row);
+			for(int k = 0; k < length; k++)
+				itemCounts[row[k]]++;
+		}
+		rankItems(itemCounts);
+
+		// second pass: insert the frequent items of each row
+		int[] path = new int[order.length];
+		cursor = rows.cursor(0);
+		for(int j = 0; j < rows.size(); j++)
+		{
+			int length = cursor.next(row);
+			int pathLength = 0;
+			for(int k = 0; k < length; k++){
+				if(rank[row[k]] >= 0)
+					path[pathLength++] = rank[row[k]];
+			}
+			Arrays.sort(path, 0, pathLength);
+			insert(path, pathLength, 1);
+		}
+	}
+
+	/*
+	 * Builds a conditional tree from the given transactions in the same two passes.
+	 * Each transaction is inserted with the matching weight.
+	 */
+	private FPTree(ArrayList<int[]> transactions, ArrayList<Integer> weights, int numItems, int minCount, int maxLength)
+	{
+		this.minCount = minCount;
+		this.maxLength = maxLength;
+		root = new FPNode(-1, null);
+
+		// first pass: count the items
+		int[] itemCounts = new int[numItems];
+		for(int t = 0; t < transactions.size(); t++)
+		{
+			for(int item : transactions.get(t))
+				itemCounts[item] += weights.get(t);
+		}
+		rankItems(itemCounts);
+
+		// second pass: insert the frequent items of each transaction
+		int[] path = new int[order.length];
+		for(int t = 0; t < transactions.size(); t++)
+		{
+			int length = 0;
+			for(int item : transactions.get(t)){
+				if(rank[item] >= 0)
+					path[length++] = rank[item];
+			}
+			Arrays.sort(path, 0, length);
+			insert(path, length, weights.get(t));
+		}
+	}
+
+	/*
+	 * ranks the frequent items by descending count, breaking ties by item number
+	 */
+	private void rankItems(int[] itemCounts)
+	{
+		ArrayList<Integer> frequent = new ArrayList<Integer>();
+		for(int item = 0; item < itemCounts.length; item++){
+			if(itemCounts[item] >= minCount && itemCounts[item] > 0)
+				frequent.add(item);
+		}
+		frequent.sort((a, b) -> itemCounts[a] != itemCounts[b] ? itemCounts[b] - itemCounts[a] : a - b);
+
+		order = new int[frequent.size()];
+		rank = new int[itemCounts.length];
+		Arrays.fill(rank, -1);
+		for(int r = 0; r < order.length; r++){
+			order[r] = frequent.get(r);
+			rank[order[r]] = r;
+		}
+		heads = new FPNode[order.length];
+		counts = new int[order.length];
+	}
+
+	/*
+	 * adds a path of item ranks to the tree, sharing the existing prefix
+	 */
+	private void insert(int[] path, int length, int weight)
+	{
+		FPNode curr = root;
+		for(int i = 0; i < length; i++)
+		{
+			int item = order[path[i]];
+			FPNode child = curr.children.get(item);
+			if(child == null)
+			{
+				child = new FPNode(item, curr);
+				curr.children.put(item, child);
+				child.next = heads[path[i]];
+				heads[path[i]] = child;
+			}
+			child.count += weight;
+			counts[path[i]] += weight;
+			curr = child;
+		}
+	}
+
+	/*
+	 * Mines the tree recursively. Each frequent itemset found is the given suffix extended
+	 * with items of this tree; it is added to itemsets and its count is stored in supports.
+	 */
+	public void mine(int[] suffix, ArrayList<Itemset> itemsets, SupportTable supports)
+	{
+		// start from the least frequent item, whose conditional pattern base is smallest
+		for(int r = order.length - 1; r >= 0; r--)
+		{
+			int[] newSuffix = Arrays.copyOf(suffix, suffix.length + 1);
+			newSuffix[suffix.length] = order[r];
+
+			Itemset itemset = new Itemset(newSuffix.clone());
+			itemsets.add(itemset);
+			supports.put(itemset, counts[r]);
+			if(maxLength > 0 && newSuffix.length >= maxLength)
+				continue;
+
+			// conditional pattern base: the prefix path of every node holding this item
+			ArrayList<int[]> base = new ArrayList<int[]>();
+			ArrayList<Integer> baseCounts = new ArrayList<Integer>();
+			for(FPNode node = heads[r]; node != null; node = node.next)
+			{
+				int length = 0;
+				for(FPNode p = node.parent; p != root; p = p.parent)
+					length++;
+				if(length == 0)
+					continue;
+
+				int[] prefix = new int[length];
+				int i = 0;
+				for(FPNode p = node.parent; p != root; p = p.parent)
+					prefix[i++] = p.item;
+				base.add(prefix);
+				baseCounts.add(node.count);
+			}
+
+			if(!base.isEmpty())
+			{
+				FPTree conditional = new FPTree(base, baseCounts, rank.length, minCount, maxLength);
+				if(conditional.order.length > 0)
+					conditional.mine(newSuffix, itemsets, supports);
+			}
+		}
+	}
+}
@@ -0,0 +1,223 @@
+/*
+ * A decision tree grown from a stream of tuples with the VFDT (Hoeffding tree) algorithm.
+ *
+ * Each leaf keeps only counts: the number of its tuples of each class, for every value of every
+ * attribute still available to it. Every GRACE_PERIOD tuples a leaf works out the information gain
+ * of each attribute from its counts, and splits on the best one once the Hoeffding bound shows,
+ * with probability 1 - delta, that it is better than the second best (or the two are too close to
+ * matter). The tuples are never kept, so memory depends on the size of the tree and the number of
+ * distinct values, not on the number of tuples; a leaf's counts only cover the values it has seen,
+ * so the caller bounds them by limiting the values of each column.
+ *
+ * Tuples are given as value numbers, one per attribute; the target attribute's value must be 0 or 1.
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class HoeffdingTree {
+
+	private static final int GRACE_PERIOD = 200; // tuples a leaf sees between checks for a split
+	private static final double TIE_THRESHOLD = 0.05; // split anyway once the bound is below this
+
+	private HNode root;
+	private int target;
+	private double delta; // the allowed probability of choosing the wrong attribute at a split
+	private int numNodes = 1;
+	private int numLeaves = 1;
+
+	/*
+	 * A node of the tree: a leaf with its counts, or a split on attr with a child for each value seen
+	 */
+	private static class HNode {
+		int attr = -1; // the attribute split on, or -1 for a leaf
+		HNode[] children; // indexed by value; null for a value no tuple reaching the node has had yet
+		int[] classCounts = new int[2];
+		int[] attributes; // the attributes a leaf can still split on
+		int[][] counts; // counts[a][2 * value + class] for each available attribute a
+		int seen; // tuples seen by a leaf
+		int lastCheck; // value of seen when the leaf last looked for a split
+
+		HNode(int[] attributes) {
+			this.attributes = attributes;
+			counts = new int[attributes.length][0];
+		}
+	}
+
+	/*
+	 * Starts a tree with a single leaf that can split on every attribute other than target.
+	 */
+	public HoeffdingTree(int numAttributes, int target, double delta)
+	{
+		this.target = target;
+		this.delta = delta;
+		int[] attributes = new int[numAttributes - 1];
+		for(int i = 0, a = 0; i < numAttributes; i++){
+			if(i != target)
+				attributes[a++] = i;
+		}
+		root = new HNode(attributes);
+	}
+
+	public int getNumNodes()
+	{
+		return numNodes;
+	}
+
+	public int getNumLeaves()
+	{
+		return numLeaves;
+	}
+
+	/*
+	 * sorts a tuple down to its leaf, adds it to the leaf's counts, and splits the leaf if it is time
+	 */
+	public void add(int[] row)
+	{
+		HNode node = root;
+		while(node.attr >= 0)
+		{
+			int value = row[node.attr];
+			if(value >= node.children.length)
+				node.children = Arrays.copyOf(node.children, value + 1);
+			if(node.children[value] == null){
+				node.children[value] = new HNode(without(node.attributes, node.attr));
+				numNodes++;
+				numLeaves++;
+			}
+			node = node.children[value];
+		}
+
+		int c = row[target];
+		node.classCounts[c]++;
+		for(int a = 0; a < node.attributes.length; a++)
+		{
+			int value = row[node.attributes[a]];
+			if(2 * value >= node.counts[a].length)
+				node.counts[a] = Arrays.copyOf(node.counts[a], 2 * value + 2);
+			node.counts[a][2 * value + c]++;
+		}
+		node.seen++;
+
+		if(node.seen - node.lastCheck >= GRACE_PERIOD && node.classCounts[0] > 0 && node.classCounts[1] > 0)
+		{
+			node.lastCheck = node.seen;
+			trySplit(node);
+		}
+	}
+
+	/*
+	 * splits a leaf on its best attribute if the Hoeffding bound allows it
+	 */
+	private void trySplit(HNode node)
+	{
+		if(node.attributes.length == 0)
+			return;
+
+		double entropy = entropy(node.classCounts[0], node.classCounts[1]);
+		int best = -1;
+		double bestGain = 0.0, secondGain = 0.0;
+		for(int a = 0; a < node.attributes.length; a++)
+		{
+			double gain = entropy - expectedEntropy(node.counts[a], node.seen);
+			if(best < 0 || gain > bestGain){
+				secondGain = best < 0 ? 0.0 : bestGain;
+				bestGain = gain;
+				best = a;
+			}
+			else if(gain > secondGain)
+				secondGain = gain;
+		}
+
+		// the range of the gain is log2 of the number of classes, which is 1
+		double epsilon = Math.sqrt(Math.log(1.0 / delta) / (2.0 * node.seen));
+		if(bestGain > 0.0 && (bestGain - secondGain > epsilon || epsilon < TIE_THRESHOLD))
+		{
+			// the counts are no longer needed; the children start counting afresh
+			node.attr = node.attributes[best];
+			node.children = new HNode[node.counts[best].length / 2];
+			node.counts = null;
+			numLeaves--;
+		}
+	}
+
+	/*
+	 * writes the tree in the form of the Rules file: a line for each node below the root, indented
+	 * by its depth, ending in the prediction and its confidence at a leaf. values.get(i).get(v)
+	 * is the name of value v of attribute i.
+	 */
+	public void write(BufferedWriter bw, List<String> attributeNames, List<List<String>> values, String targetAttr, String[] targetValues) throws IOException
+	{
+		write(root, 0, bw, attributeNames, values, targetAttr, targetValues);
+	}
+
+	private void write(HNode node, int level, BufferedWriter bw, List<String> attributeNames, List<List<String>> values, String targetAttr, String[] targetValues) throws IOException
+	{
+		// a node that has only just split has no children yet, so it still predicts like a leaf
+		boolean hasChildren = false;
+		for(int v = 0; node.attr >= 0 && v < node.children.length && !hasChildren; v++)
+			hasChildren = node.children[v] != null;
+
+		if(!hasChildren)
+		{
+			int total = node.classCounts[0] + node.classCounts[1];
+			int c = node.classCounts[0] >= node.classCounts[1] ? 0 : 1;
+			bw.append(targetAttr + " is " + targetValues[c]);
+			bw.append(" (confidence=" + (total == 0 ? 0.5 : (double)node.classCounts[c] / (double)total) + ")");
+			bw.newLine();
+			return;
+		}
+		if(level > 0)
+			bw.newLine();
+
+		String indent = "";
+		for(int i = 0; i <= level; i++)
+			indent = indent + " ";
+		for(int v = 0; v < node.children.length; v++)
+		{
+			if(node.children[v] == null)
+				continue;
+			bw.append(indent + "If " + attributeNames.get(node.attr) + " is " + values.get(node.attr).get(v) + ",  then  ");
+			write(node.children[v], level + 1, bw, attributeNames, values, targetAttr, targetValues);
+		}
+	}
+
+	/*
+	 * returns the attributes without attr
+	 */
+	private static int[] without(int[] attributes, int attr)
+	{
+		int[] result = new int[attributes.length - 1];
+		int n = 0;
+		for(int a : attributes){
+			if(a != attr)
+				result[n++] = a;
+		}
+		return result;
+	}
+
+	/*
+	 * the expected entropy after splitting on an attribute, from its class counts for each value
+	 */
+	private static double expectedEntropy(int[] counts, int total)
+	{
+		double exp_entropy = 0.0;
+		for(int v = 0; v + 1 < counts.length; v += 2)
+		{
+			double p = (double)(counts[v] + counts[v + 1]) / (double)total;
+			exp_entropy += p * entropy(counts[v], counts[v + 1]);
+		}
+		return exp_entropy;
+	}
+
+	private static double entropy(int t1, int t2)
+	{
+		if(t1 == 0 || t2 == 0)
+			return 0.0;
+		double p0 = (double)t1 / (double)(t1 + t2);
+		double p1 = (double)t2 / (double)(t1 + t2);
+		return -(p0 * (Math.log(p0) / Math.log(2)) + p1 * (Math.log(p1) / Math.log(2)));
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * A compact, immutable itemset: the item numbers are kept in a sorted int array,
+ * and the hash code is computed once, since itemsets are mostly used as table keys.
+ */
+
+import java.util.Arrays;
+
+public class Itemset implements Comparable<Itemset> {
+
+	private final int[] items; // sorted item numbers
+	private final int hash;
+
+	/*
+	 * Creates an itemset from the given item numbers. The array is sorted and kept,
+	 * so it must not be changed afterwards.
+	 */
+	public Itemset(int... items)
+	{
+		Arrays.sort(items);
+		this.items = items;
+		this.hash = Arrays.hashCode(items);
+	}
+
+	public int size()
+	{
+		return items.length;
+	}
+
+	public int get(int i)
+	{
+		return items[i];
+	}
+
+	/*
+	 * returns the sorted item numbers; the array must not be changed
+	 */
+	public int[] items()
+	{
+		return items;
+	}
+
+	public boolean contains(int item)
+	{
+		return Arrays.binarySearch(items, item) >= 0;
+	}
+
+	/*
+	 * returns true if every item of this itemset is in the given sorted row
+	 */
+	public boolean containedIn(int[] row)
+	{
+		return containedIn(row, 0, row.length);
+	}
+
+	/*
+	 * returns true if every item of this itemset is in row[from..to), which must be sorted
+	 */
+	public boolean containedIn(int[] row, int from, int to)
+	{
+		int j = from;
+		for(int item : items)
+		{
+			while(j < to && row[j] < item)
+				j++;
+			if(j == to || row[j] != item)
+				return false;
+			j++;
+		}
+		return true;
+	}
+
+	/*
+	 * returns true if every item of the given itemset is in this itemset
+	 */
+	public boolean containsAll(Itemset other)
+	{
+		return other.containedIn(items);
+	}
+
+	/*
+	 * returns a copy of this itemset with the item at the given position removed
+	 */
+	public Itemset without(int index)
+	{
+		int[] arr = new int[items.length - 1];
+		System.arraycopy(items, 0, arr, 0, index);
+		System.arraycopy(items, index + 1, arr, index, items.length - index - 1);
+		return new Itemset(arr);
+	}
+
+	/*
+	 * returns a copy of this itemset with the given item added
+	 */
+	public Itemset with(int item)
+	{
+		int[] arr = Arrays.copyOf(items, items.length + 1);
+		arr[items.length] = item;
+		return new Itemset(arr);
+	}
+
+	/*
+	 * returns the items of this itemset that are not in the given itemset
+	 */
+	public Itemset minus(Itemset other)
+	{
+		int[] arr = new int[items.length];
+		int n = 0;
+		for(int item : items){
+			if(!other.contains(item))
+				arr[n++] = item;
+		}
+		return new Itemset(Arrays.copyOf(arr, n));
+	}
+
+	/*
+	 * orders itemsets by size, then by their items
+	 */
+	public int compareTo(Itemset other)
+	{
+		if(items.length != other.items.length)
+			return items.length - other.items.length;
+		for(int i = 0; i < items.length; i++){
+			if(items[i] != other.items[i])
+				return items[i] < other.items[i] ? -1 : 1;
+		}
+		return 0;
+	}
+
+	public boolean equals(Object o)
+	{
+		if(this == o)
+			return true;
+		if(!(o instanceof Itemset))
+			return false;
+		Itemset other = (Itemset)o;
+		return hash == other.hash && Arrays.equals(items, other.items);
+	}
+
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	public String toString()
+	{
+		return Arrays.toString(items);
+	}
+}
@@ -0,0 +1,360 @@
+/*
+ * A compact binary store of association rules, for looking up the rules that apply to a basket.
+ *
+ * The file is memory-mapped when opened. It holds the item dictionary, then an index giving,
+ * for each item, the position and number of the rules whose antecedent starts with that item,
+ * then the rules themselves grouped by that first item. A basket's matching rules are found by
+ * reading only the groups of the items in the basket.
+ *
+ * Layout (big-endian):
+ *   int magic, int version, int numRows, double minSupport, double minConfidence
+ *   int numItems, then for each item: attribute and value as (int length, UTF-8 bytes)
+ *   int numRules, then for each item: long position of its first rule, int number of rules
+ *   each rule: int antecedent length, int consequent length, float support, float confidence,
+ *              the antecedent item numbers in ascending order, then the consequent item numbers
+ *
+ * Usage: java RuleStore <store file> attribute=value ...
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class RuleStore {
+
+	private static final int MAGIC = 0x52554C53; // "RULS"
+	private static final int VERSION = 1;
+
+	private MappedByteBuffer buffer;
+	private int numRows;
+	private double minSupport, minConfidence;
+	private String[] attributes; // attribute name of each item
+	private String[] values; // value of each item
+	private HashMap<String, Integer> itemNumbers; // maps "attribute=value" to item numbers
+	private int numRules;
+	private int indexStart; // position of the index entry of item 0
+
+	/*
+	 * A rule read from the store
+	 */
+	public static class Rule {
+		public int[] antecedent, consequent;
+		public float support, confidence;
+	}
+
+	/*
+	 * Opens and memory-maps a rule store written by RuleStore.Writer.
+	 */
+	public RuleStore(String filename) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		FileChannel channel = file.getChannel();
+		if(channel.size() > Integer.MAX_VALUE){
+			file.close();
+			throw new IOException("Rule store is too large to map: " + filename);
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		file.close();
+
+		if(buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			throw new IOException("Not a rule store: " + filename);
+		numRows = buffer.getInt();
+		minSupport = buffer.getDouble();
+		minConfidence = buffer.getDouble();
+
+		int numItems = buffer.getInt();
+		attributes = new String[numItems];
+		values = new String[numItems];
+		itemNumbers = new HashMap<String, Integer>();
+		for(int i = 0; i < numItems; i++)
+		{
+			attributes[i] = readString(buffer);
+			values[i] = readString(buffer);
+			itemNumbers.put(attributes[i] + "=" + values[i], i);
+		}
+		numRules = buffer.getInt();
+		indexStart = buffer.position();
+	}
+
+	public int getNumRules()
+	{
+		return numRules;
+	}
+
+	public int getNumRows()
+	{
+		return numRows;
+	}
+
+	public double getMinSupport()
+	{
+		return minSupport;
+	}
+
+	public double getMinConfidence()
+	{
+		return minConfidence;
+	}
+
+	/*
+	 * returns the number of the item with the given attribute and value, or -1 if it is not in the store
+	 */
+	public int getItem(String attribute, String value)
+	{
+		Integer num = itemNumbers.get(attribute + "=" + value);
+		return num == null ? -1 : num;
+	}
+
+	/*
+	 * returns the rules whose antecedent is contained in the given basket of item numbers.
+	 * Safe to call from several threads at once.
+	 */
+	public ArrayList<Rule> match(int[] basket)
+	{
+		int[] items = basket.clone();
+		Arrays.sort(items);
+
+		ArrayList<Rule> rules = new ArrayList<Rule>();
+		for(int b = 0; b < items.length; b++)
+		{
+			if(items[b] < 0 || items[b] >= attributes.length || (b > 0 && items[b] == items[b - 1]))
+				continue;
+
+			// the rules in this item's group all have it as their smallest antecedent item
+			int entry = indexStart + items[b] * 12;
+			int position = (int)buffer.getLong(entry);
+			int count = buffer.getInt(entry + 8);
+			for(int r = 0; r < count; r++)
+			{
+				int antecedentLength = buffer.getInt(position);
+				int consequentLength = buffer.getInt(position + 4);
+				int itemsStart = position + 16;
+
+				// check the rest of the antecedent against the rest of the basket
+				boolean contained = true;
+				int j = b + 1;
+				for(int k = 1; k < antecedentLength && contained; k++)
+				{
+					int item = buffer.getInt(itemsStart + k * 4);
+					while(j < items.length && items[j] < item)
+						j++;
+					contained = j < items.length && items[j] == item;
+				}
+
+				if(contained)
+				{
+					Rule rule = new Rule();
+					rule.support = buffer.getFloat(position + 8);
+					rule.confidence = buffer.getFloat(position + 12);
+					rule.antecedent = new int[antecedentLength];
+					rule.consequent = new int[consequentLength];
+					for(int k = 0; k < antecedentLength; k++)
+						rule.antecedent[k] = buffer.getInt(itemsStart + k * 4);
+					for(int k = 0; k < consequentLength; k++)
+						rule.consequent[k] = buffer.getInt(itemsStart + (antecedentLength + k) * 4);
+					rules.add(rule);
+				}
+				position = itemsStart + (antecedentLength + consequentLength) * 4;
+			}
+		}
+		return rules;
+	}
+
+	/*
+	 * returns the rule in the same form as the Rules file
+	 */
+	public String toString(Rule rule)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("(Support=%1.2f, Confidence=%1.2f)\n{ ", rule.support, rule.confidence));
+		for(int num : rule.antecedent)
+			sb.append(attributes[num]).append('=').append(values[num]).append(' ');
+		sb.append(" }\n----> { ");
+		for(int num : rule.consequent)
+			sb.append(attributes[num]).append('=').append(values[num]).append(' ');
+		sb.append(" }");
+		return sb.toString();
+	}
+
+	private static String readString(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Writes a rule store. Rules are added in any order and spooled to a temporary file;
+	 * close() then groups them by their first antecedent item into the store.
+	 */
+	public static class Writer {
+
+		private String filename;
+		private String[] attributes, values;
+		private int numRows;
+		private double minSupport, minConfidence;
+
+		private File spoolFile;
+		private DataOutputStream spool;
+		private int numRules;
+		private int[] groupCounts; // number of rules in each item's group
+		private long[] groupBytes; // size in bytes of each item's group
+
+		public Writer(String filename, String[] attributes, String[] values, int numRows, double minSupport, double minConfidence) throws IOException
+		{
+			this.filename = filename;
+			this.attributes = attributes;
+			this.values = values;
+			this.numRows = numRows;
+			this.minSupport = minSupport;
+			this.minConfidence = minConfidence;
+
+			spoolFile = File.createTempFile("RuleStore", ".tmp", new File(".").getAbsoluteFile());
+			spool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile), 1 << 16));
+			groupCounts = new int[attributes.length];
+			groupBytes = new long[attributes.length];
+		}
+
+		/*
+		 * adds a rule; both item arrays must be sorted in ascending order
+		 */
+		public void add(int[] antecedent, int[] consequent, double support, double confidence) throws IOException
+		{
+			spool.writeInt(antecedent.length);
+			spool.writeInt(consequent.length);
+			spool.writeFloat((float)support);
+			spool.writeFloat((float)confidence);
+			for(int num : antecedent)
+				spool.writeInt(num);
+			for(int num : consequent)
+				spool.writeInt(num);
+
+			groupCounts[antecedent[0]]++;
+			groupBytes[antecedent[0]] += 16 + 4 * (antecedent.length + consequent.length);
+			numRules++;
+		}
+
+		/*
+		 * writes the store file and deletes the temporary file
+		 */
+		public void close() throws IOException
+		{
+			spool.close();
+
+			byte[][] attributeBytes = new byte[attributes.length][];
+			byte[][] valueBytes = new byte[attributes.length][];
+			long size = 4 + 4 + 4 + 8 + 8 + 4 + 4 + attributes.length * 12L;
+			for(int i = 0; i < attributes.length; i++)
+			{
+				attributeBytes[i] = String.valueOf(attributes[i]).getBytes(StandardCharsets.UTF_8);
+				valueBytes[i] = String.valueOf(values[i]).getBytes(StandardCharsets.UTF_8);
+				size += 8 + attributeBytes[i].length + valueBytes[i].length;
+			}
+			long rulesStart = size;
+			for(long bytes : groupBytes)
+				size += bytes;
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("Too many rules for a rule store: " + numRules);
+
+			RandomAccessFile file = new RandomAccessFile(filename, "rw");
+			file.setLength(size);
+			MappedByteBuffer out = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			file.close();
+
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			out.putInt(numRows);
+			out.putDouble(minSupport);
+			out.putDouble(minConfidence);
+			out.putInt(attributes.length);
+			for(int i = 0; i < attributes.length; i++)
+			{
+				out.putInt(attributeBytes[i].length);
+				out.put(attributeBytes[i]);
+				out.putInt(valueBytes[i].length);
+				out.put(valueBytes[i]);
+			}
+			out.putInt(numRules);
+
+			// index: where each item's group starts
+			int[] next = new int[attributes.length]; // where the next rule of each group goes
+			long position = rulesStart;
+			for(int i = 0; i < attributes.length; i++)
+			{
+				out.putLong(position);
+				out.putInt(groupCounts[i]);
+				next[i] = (int)position;
+				position += groupBytes[i];
+			}
+
+			// copy each spooled rule into its group
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile), 1 << 16));
+			for(int r = 0; r < numRules; r++)
+			{
+				int antecedentLength = in.readInt();
+				int consequentLength = in.readInt();
+				float support = in.readFloat();
+				float confidence = in.readFloat();
+				int first = in.readInt();
+
+				out.position(next[first]);
+				out.putInt(antecedentLength);
+				out.putInt(consequentLength);
+				out.putFloat(support);
+				out.putFloat(confidence);
+				out.putInt(first);
+				for(int k = 1; k < antecedentLength + consequentLength; k++)
+					out.putInt(in.readInt());
+				next[first] = out.position();
+			}
+			in.close();
+			out.force();
+			spoolFile.delete();
+		}
+	}
+
+	/*
+	 * prints the rules of the given store that match the basket given as attribute=value arguments
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 1){
+			System.out.println("Usage: java RuleStore <store file> attribute=value ...");
+			return;
+		}
+		RuleStore store = new RuleStore(args[0]);
+
+		int[] basket = new int[args.length - 1];
+		for(int i = 1; i < args.length; i++)
+		{
+			int eq = args[i].indexOf('=');
+			basket[i - 1] = eq < 0 ? -1 : store.getItem(args[i].substring(0, eq), args[i].substring(eq + 1));
+			if(basket[i - 1] < 0)
+				System.out.println("Unknown item: " + args[i]);
+		}
+
+		long start = System.nanoTime();
+		ArrayList<Rule> rules = store.match(basket);
+		long micros = (System.nanoTime() - start) / 1000;
+
+		for(Rule rule : rules)
+		{
+			System.out.println(store.toString(rule));
+			System.out.println();
+		}
+		System.out.println(rules.size() + " of " + store.getNumRules() + " rules match (" + micros + " microseconds)");
+	}
+}
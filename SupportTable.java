@@ -0,0 +1,92 @@
+/*
+ * Table mapping itemsets to the number of rows that contain them.
+ * Uses open addressing with linear probing over parallel key and count arrays,
+ * so each entry costs one array slot instead of a map entry and a boxed value.
+ */
+
+public class SupportTable {
+
+	private Itemset[] keys;
+	private int[] counts;
+	private int size;
+
+	public SupportTable()
+	{
+		this(16);
+	}
+
+	public SupportTable(int expectedSize)
+	{
+		int capacity = 16;
+		while(capacity < expectedSize * 2)
+			capacity <<= 1;
+		keys = new Itemset[capacity];
+		counts = new int[capacity];
+	}
+
+	/*
+	 * returns the slot holding the given itemset, or the empty slot where it would go
+	 */
+	private int slot(Itemset key)
+	{
+		int mask = keys.length - 1;
+		int i = (key.hashCode() * 0x9E3779B9) >>> 1 & mask; // spread the hash bits
+		while(keys[i] != null && !keys[i].equals(key))
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	/*
+	 * stores the count of the given itemset, replacing any previous count
+	 */
+	public void put(Itemset key, int count)
+	{
+		int i = slot(key);
+		if(keys[i] == null)
+		{
+			keys[i] = key;
+			size++;
+		}
+		counts[i] = count;
+
+		// keep the table at most half full
+		if(size * 2 > keys.length)
+			resize();
+	}
+
+	/*
+	 * returns the count of the given itemset, or -1 if it is not in the table
+	 */
+	public int get(Itemset key)
+	{
+		int i = slot(key);
+		return keys[i] == null ? -1 : counts[i];
+	}
+
+	public boolean containsKey(Itemset key)
+	{
+		return keys[slot(key)] != null;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private void resize()
+	{
+		Itemset[] oldKeys = keys;
+		int[] oldCounts = counts;
+		keys = new Itemset[oldKeys.length * 2];
+		counts = new int[oldKeys.length * 2];
+		for(int i = 0; i < oldKeys.length; i++)
+		{
+			if(oldKeys[i] != null)
+			{
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				counts[j] = oldCounts[i];
+			}
+		}
+	}
+}
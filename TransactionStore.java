@@ -0,0 +1,170 @@
+/*
+ * The encoded rows of the database, stored off the heap.
+ *
+ * Rows are appended one after another into large direct buffers as their length followed by
+ * their item numbers, so millions of rows are a handful of objects to the garbage collector
+ * instead of one array each. Rows are read back sequentially with a Cursor; the position of
+ * every INDEX_STEP-th row is kept so that a cursor can start at any row.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+public class TransactionStore {
+
+	private static final int FIRST_CHUNK = 1 << 16; // ints in the first buffer
+	private static final int MAX_CHUNK = 1 << 24; // ints in each buffer once the store is large
+	private static final int INDEX_STEP = 64; // rows between indexed positions
+
+	private ArrayList<IntBuffer> chunks = new ArrayList<IntBuffer>();
+	private int position; // next free int in the last chunk
+	private long[] index = new long[16]; // chunk number and offset of every INDEX_STEP-th row
+	private int numRows;
+	private int maxRowLength;
+
+	/*
+	 * appends a row; its item numbers must be in ascending order by the time the rows are read
+	 */
+	public void add(int[] row)
+	{
+		add(row, row.length);
+	}
+
+	/*
+	 * appends the first length items of row
+	 */
+	public void add(int[] row, int length)
+	{
+		IntBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+		if(chunk == null || chunk.capacity() - position < length + 1)
+		{
+			// end the last chunk with a marker and start a new, larger one
+			if(chunk != null && position < chunk.capacity())
+				chunk.put(position, -1);
+			int size = chunk == null ? FIRST_CHUNK : Math.min(chunk.capacity() * 2, MAX_CHUNK);
+			chunk = ByteBuffer.allocateDirect(Math.max(size, length + 1) * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+			chunks.add(chunk);
+			position = 0;
+		}
+
+		if(numRows % INDEX_STEP == 0)
+		{
+			if(numRows / INDEX_STEP == index.length)
+				index = Arrays.copyOf(index, index.length * 2);
+			index[numRows / INDEX_STEP] = ((long)(chunks.size() - 1) << 32) | position;
+		}
+		chunk.put(position, length);
+		chunk.put(position + 1, row, 0, length);
+		position += length + 1;
+		numRows++;
+		maxRowLength = Math.max(maxRowLength, length);
+	}
+
+	public int size()
+	{
+		return numRows;
+	}
+
+	/*
+	 * returns the length of the longest row, which is large enough for any row read by a cursor
+	 */
+	public int getMaxRowLength()
+	{
+		return maxRowLength;
+	}
+
+	/*
+	 * replaces every item number n in the store with renumber(n), in place; the rows must
+	 * still be in ascending order afterwards
+	 */
+	public void replaceAll(IntUnaryOperator renumber)
+	{
+		for(IntBuffer chunk : chunks)
+		{
+			int offset = 0;
+			while(offset < chunk.capacity() && chunk.get(offset) >= 0 && (chunk != chunks.get(chunks.size() - 1) || offset < position))
+			{
+				int length = chunk.get(offset);
+				for(int k = offset + 1; k <= offset + length; k++)
+					chunk.put(k, renumber.applyAsInt(chunk.get(k)));
+				offset += length + 1;
+			}
+		}
+	}
+
+	/*
+	 * returns a copy of the j-th row
+	 */
+	public int[] getRow(int j)
+	{
+		int[] row = new int[maxRowLength];
+		return Arrays.copyOf(row, cursor(j).next(row));
+	}
+
+	/*
+	 * returns a cursor that reads the rows in order, starting at the given row
+	 */
+	public Cursor cursor(int from)
+	{
+		return new Cursor(from);
+	}
+
+	/*
+	 * Reads the rows of the store in order. Each thread reading the store needs its own cursor.
+	 */
+	public class Cursor {
+
+		private int chunk;
+		private int offset;
+
+		private Cursor(int from)
+		{
+			if(from >= numRows)
+			{
+				chunk = chunks.size();
+				return;
+			}
+			long start = index[from / INDEX_STEP];
+			chunk = (int)(start >>> 32);
+			offset = (int)start;
+			for(int j = from - from % INDEX_STEP; j < from; j++)
+				skip();
+		}
+
+		/*
+		 * copies the next row into row, returning its length
+		 */
+		public int next(int[] row)
+		{
+			IntBuffer buffer = current();
+			int length = buffer.get(offset);
+			buffer.get(offset + 1, row, 0, length);
+			offset += length + 1;
+			return length;
+		}
+
+		private void skip()
+		{
+			int length = current().get(offset);
+			offset += length + 1;
+		}
+
+		/*
+		 * returns the chunk holding the next row, moving to the next chunk at the end of one
+		 */
+		private IntBuffer current()
+		{
+			IntBuffer buffer = chunks.get(chunk);
+			if(offset == buffer.capacity() || buffer.get(offset) < 0)
+			{
+				buffer = chunks.get(++chunk);
+				offset = 0;
+			}
+			return buffer;
+		}
+	}
+}